@@ -0,0 +1,101 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker.bench;
+
+import com.braindrainpain.docker.DockerAPI;
+import com.braindrainpain.docker.DockerMaterialConfiguration;
+import com.braindrainpain.docker.PollTarget;
+import com.braindrainpain.docker.StubRegistry;
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageConfiguration;
+import com.thoughtworks.go.plugin.api.material.packagerepository.RepositoryConfiguration;
+import com.thoughtworks.go.plugin.api.response.validation.ValidationResult;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The work done on the configurations for every poll: URL formatting and
+ * validation, compared with the lookup of a compiled PollTarget.
+ *
+ * @author Jan De Cooman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigurationBenchmark {
+
+    private StubRegistry registry;
+
+    private RepositoryConfiguration repositoryConfiguration;
+
+    private PackageConfiguration packageConfiguration;
+
+    private DockerMaterialConfiguration materialConfiguration;
+
+    @Setup
+    public void setup() throws IOException {
+        Fixtures.muteLogging();
+        this.registry = new StubRegistry(DockerAPI.V2, 10);
+        this.registry.start();
+        this.repositoryConfiguration = Fixtures.repository(this.registry.getUrl());
+        this.packageConfiguration = Fixtures.pkg("library/ubuntu", "latest");
+        this.materialConfiguration = new DockerMaterialConfiguration();
+        PollTarget.compile(this.repositoryConfiguration, this.packageConfiguration);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.registry.stop();
+    }
+
+    @Benchmark
+    public String formatUrl() {
+        return DockerAPI.V1.tags("https://registry.example.com", "library/ubuntu");
+    }
+
+    @Benchmark
+    public ValidationResult validate() {
+        ValidationResult result = new ValidationResult();
+        this.materialConfiguration.validate(this.packageConfiguration, this.repositoryConfiguration, result);
+        return result;
+    }
+
+    @Benchmark
+    public PollTarget lookupTarget() {
+        return PollTarget.lookup(this.repositoryConfiguration, this.packageConfiguration);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker.bench;
+
+import com.braindrainpain.docker.Constants;
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageConfiguration;
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageMaterialProperty;
+import com.thoughtworks.go.plugin.api.material.packagerepository.RepositoryConfiguration;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Helpers shared by the benchmarks.
+ *
+ * @author Jan De Cooman
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    public static RepositoryConfiguration repository(final String registry) {
+        RepositoryConfiguration configuration = new RepositoryConfiguration();
+        configuration.add(new PackageMaterialProperty(Constants.REGISTRY, registry));
+        return configuration;
+    }
+
+    public static PackageConfiguration pkg(final String repository, final String tag) {
+        PackageConfiguration configuration = new PackageConfiguration();
+        configuration.add(new PackageMaterialProperty(Constants.REPOSITORY, repository));
+        configuration.add(new PackageMaterialProperty(Constants.TAG, tag));
+        return configuration;
+    }
+
+    /**
+     * Outside of Go the plugin logger writes to the console. Drop it, it
+     * would only measure the console.
+     */
+    public static void muteLogging() {
+        PrintStream silent = new PrintStream(new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        });
+        System.setOut(silent);
+        System.setErr(silent);
+    }
+}
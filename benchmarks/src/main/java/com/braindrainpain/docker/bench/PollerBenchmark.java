@@ -0,0 +1,116 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker.bench;
+
+import com.braindrainpain.docker.DockerAPI;
+import com.braindrainpain.docker.DockerMaterialPoller;
+import com.braindrainpain.docker.StubRegistry;
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageConfiguration;
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageRevision;
+import com.thoughtworks.go.plugin.api.material.packagerepository.RepositoryConfiguration;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The complete poll against the in-process registry.
+ *
+ * The plugin reads its settings once, so every combination of the
+ * parameters runs in its own fork.
+ *
+ * @author Jan De Cooman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PollerBenchmark {
+
+    @Param({"V1", "V2"})
+    public DockerAPI api;
+
+    @Param({"1000"})
+    public int tags;
+
+    /**
+     * docker.repo.tags.cache.ttl: 0 fetches the tag list on every poll.
+     */
+    @Param({"0", "30000"})
+    public String tagsCacheTtl;
+
+    private StubRegistry registry;
+
+    private DockerMaterialPoller poller;
+
+    private RepositoryConfiguration repositoryConfiguration;
+
+    private PackageConfiguration packageConfiguration;
+
+    private PackageRevision knownRevision;
+
+    @Setup
+    public void setup() throws IOException {
+        Fixtures.muteLogging();
+        System.setProperty("docker.repo.tags.cache.ttl", this.tagsCacheTtl);
+
+        this.registry = new StubRegistry(this.api, this.tags);
+        this.registry.start();
+        this.poller = new DockerMaterialPoller();
+        this.repositoryConfiguration = Fixtures.repository(this.registry.getUrl());
+        this.packageConfiguration = Fixtures.pkg("library/ubuntu", "latest");
+        this.knownRevision = new PackageRevision(
+                this.poller.getLatestRevision(this.packageConfiguration, this.repositoryConfiguration).getRevision(),
+                new Date(), "docker");
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.registry.stop();
+    }
+
+    @Benchmark
+    public PackageRevision getLatestRevision() {
+        return this.poller.getLatestRevision(this.packageConfiguration, this.repositoryConfiguration);
+    }
+
+    @Benchmark
+    public PackageRevision latestModificationSince() {
+        return this.poller.latestModificationSince(
+                this.packageConfiguration, this.repositoryConfiguration, this.knownRevision);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker.bench;
+
+import com.braindrainpain.docker.DockerAPI;
+import com.braindrainpain.docker.DockerTag;
+import com.braindrainpain.docker.StubRegistry;
+import com.braindrainpain.docker.TagList;
+import com.braindrainpain.docker.TagListParser;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up one tag in a tag list of a growing size. The tag is the last one
+ * of the list, the worst case for the streaming lookup.
+ *
+ * @author Jan De Cooman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagLookupBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int tags;
+
+    private String json;
+
+    private TagList tagList;
+
+    private TagListParser parser;
+
+    @Setup
+    public void setup() throws IOException {
+        Fixtures.muteLogging();
+        this.json = StubRegistry.tagList(DockerAPI.V1, this.tags);
+        this.parser = new TagListParser(DockerAPI.V1);
+
+        final Map<String, String> map = new HashMap<>();
+        this.parser.parse(new StringReader(this.json), new TagListParser.TagVisitor() {
+            @Override
+            public boolean visit(final String tag, final String hash) {
+                map.put(tag, hash);
+                return true;
+            }
+        });
+        this.tagList = new TagList(map, null, null, System.currentTimeMillis());
+    }
+
+    /**
+     * Read the list until the tag is found.
+     */
+    @Benchmark
+    public DockerTag streamingLookup() throws IOException {
+        return this.parser.find(new StringReader(this.json), "latest");
+    }
+
+    /**
+     * Look up the tag in a cached, shared tag list.
+     */
+    @Benchmark
+    public DockerTag cachedLookup() {
+        return this.tagList.get("latest");
+    }
+}
@@ -0,0 +1,132 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker.bench;
+
+import com.braindrainpain.docker.TagIndex;
+import com.braindrainpain.docker.TagList;
+import com.braindrainpain.docker.TagMatcher;
+import com.braindrainpain.docker.TagVersion;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolving the highest tag which matches a pattern, in repositories with a
+ * growing count of version tags.
+ *
+ * @author Jan De Cooman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagMatchBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int tags;
+
+    @Param({"1.4.*", ">=2.0 <3"})
+    public String pattern;
+
+    private TagMatcher matcher;
+
+    private TagList list;
+
+    private TagList grown;
+
+    private TagIndex index;
+
+    @Setup
+    public void setup() {
+        Fixtures.muteLogging();
+        this.matcher = TagMatcher.compile(this.pattern);
+
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < this.tags; i++) {
+            map.put(version(i), null);
+        }
+        map.put("latest", null);
+        this.list = new TagList(map, null, null, System.currentTimeMillis());
+        map.put(version(this.tags), null);
+        this.grown = new TagList(map, null, null, System.currentTimeMillis());
+
+        this.index = new TagIndex();
+        this.index.update(this.list);
+    }
+
+    private static String version(final int i) {
+        return (i / 10000) + "." + (i / 100 % 100) + "." + (i % 100);
+    }
+
+    /**
+     * A poll while the tags did not change.
+     */
+    @Benchmark
+    public String unchanged() {
+        this.index.update(this.list);
+        return this.index.resolve(this.matcher);
+    }
+
+    /**
+     * A poll after one tag was pushed. Only the new tag is sorted in.
+     */
+    @Benchmark
+    public String oneTagAdded() {
+        this.index.update(this.grown);
+        String result = this.index.resolve(this.matcher);
+        this.index.update(this.list);
+        return result;
+    }
+
+    /**
+     * Sort all the tags on every poll, as a baseline.
+     */
+    @Benchmark
+    public String sortEveryPoll() {
+        TreeSet<TagVersion> sorted = new TreeSet<>();
+        for (String tag : this.list.getTags().keySet()) {
+            sorted.add(TagVersion.parse(tag));
+        }
+        for (TagVersion tag : sorted.descendingSet()) {
+            if (this.matcher.matches(tag)) {
+                return tag.getName();
+            }
+        }
+        return null;
+    }
+}
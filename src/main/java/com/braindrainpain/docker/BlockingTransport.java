@@ -0,0 +1,62 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.io.IOException;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+
+/**
+ * Runs the request on the calling thread with the pooled commons-httpclient.
+ *
+ * @author Jan De Cooman
+ */
+public class BlockingTransport implements HttpTransport {
+
+    final private HttpClient httpClient;
+
+    public BlockingTransport(final HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public int execute(final HttpMethod method, final Timer timer) throws IOException {
+        TimedSocketFactory.take();
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = this.httpClient.executeMethod(method);
+        } catch (IllegalStateException e) {
+            // the method has been aborted before it was sent
+            throw new IOException(e.getMessage(), e);
+        }
+        timer.headers(System.nanoTime() - start, TimedSocketFactory.take());
+        return status;
+    }
+
+    @Override
+    public void shutdown() {
+        // the pool belongs to HttpSupport
+    }
+}
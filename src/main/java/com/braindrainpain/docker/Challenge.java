@@ -0,0 +1,134 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.httpclient.Header;
+
+/**
+ * An authentication challenge from the WWW-Authenticate header of a 401
+ * response, like:
+ *
+ * <pre>
+ * Bearer realm="https://auth.docker.io/token",service="registry.docker.io",scope="repository:library/ubuntu:pull"
+ * </pre>
+ *
+ * @author Jan De Cooman
+ */
+public class Challenge {
+
+    final private static Pattern PARAMETER = Pattern.compile("(\\w+)=(?:\"([^\"]*)\"|([^,\\s]*))");
+
+    final private String scheme;
+
+    final private String realm;
+
+    final private String service;
+
+    final private String scope;
+
+    public Challenge(final String scheme, final String realm, final String service, final String scope) {
+        this.scheme = scheme;
+        this.realm = realm;
+        this.service = service;
+        this.scope = scope;
+    }
+
+    /**
+     * @param header The WWW-Authenticate header, can be null.
+     * @return The challenge or null when the scheme is not supported.
+     */
+    public static Challenge parse(final Header header) {
+        if (header == null) {
+            return null;
+        }
+        String value = header.getValue().trim();
+        int space = value.indexOf(' ');
+        String scheme = space < 0 ? value : value.substring(0, space);
+
+        Map<String, String> parameters = new HashMap<>();
+        Matcher matcher = PARAMETER.matcher(space < 0 ? "" : value.substring(space + 1));
+        while (matcher.find()) {
+            parameters.put(matcher.group(1).toLowerCase(),
+                    matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+        }
+
+        if ("Bearer".equalsIgnoreCase(scheme) && parameters.get("realm") != null) {
+            return new Challenge("Bearer", parameters.get("realm"), parameters.get("service"), parameters.get("scope"));
+        }
+        if ("Basic".equalsIgnoreCase(scheme)) {
+            return new Challenge("Basic", parameters.get("realm"), null, null);
+        }
+        return null;
+    }
+
+    public boolean isBearer() {
+        return "Bearer".equals(this.scheme);
+    }
+
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    public String getRealm() {
+        return this.realm;
+    }
+
+    public String getService() {
+        return this.service;
+    }
+
+    public String getScope() {
+        return this.scope;
+    }
+
+    /**
+     * @return The key of the tokens issued for this challenge.
+     */
+    public String getKey() {
+        return this.realm + "|" + this.service + "|" + this.scope;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (!(other instanceof Challenge)) {
+            return false;
+        }
+        Challenge challenge = (Challenge) other;
+        return this.scheme.equals(challenge.scheme) && this.getKey().equals(challenge.getKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.getKey().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.scheme + " " + this.getKey();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * How often the tag of one package changes, and so how often it is worth
+ * asking the registry.
+ *
+ * Go polls every material at the same interval. The digests seen by the
+ * polls give a moving average of the changes per hour of every (registry,
+ * repository, tag). The tag is checked about ten times per expected change,
+ * within the minimum and maximum interval; a poll which comes before the
+ * next check is due is answered from the last known tag. A tag which has not
+ * changed for longer than its average is taken to change even less often, so
+ * a quiet tag slows down until it changes again.
+ *
+ * The statistics are optional and only kept when they are enabled. The
+ * statistics of the least recently polled targets are dropped first.
+ *
+ * @author Jan De Cooman
+ */
+public class ChangeRate {
+
+    final private static Logger LOG = Logger.getLoggerFor(ChangeRate.class);
+
+    final private static boolean ENABLED = Boolean.getBoolean("docker.repo.adaptive.enabled");
+
+    final private static long MIN_INTERVAL = HttpSupport.getSystemProperty("docker.repo.adaptive.min.interval", 0);
+
+    final private static long MAX_INTERVAL
+            = HttpSupport.getSystemProperty("docker.repo.adaptive.max.interval", 10 * 60 * 1000);
+
+    final private static int MAX_TARGETS = HttpSupport.getSystemProperty("docker.repo.targets.cache.size", 10000);
+
+    /**
+     * The checks per expected change.
+     */
+    final private static int CHECKS = 10;
+
+    /**
+     * The weight of the last change in the moving average.
+     */
+    final private static double WEIGHT = 0.3;
+
+    final private static long HOUR = 60 * 60 * 1000;
+
+    final private static Map<String, ChangeRate> rates = new LinkedHashMap<String, ChangeRate>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, ChangeRate> eldest) {
+            return size() > MAX_TARGETS;
+        }
+    };
+
+    final private String key;
+
+    private DockerTag tag;
+
+    private long checked;
+
+    private long changed;
+
+    /**
+     * Changes per hour, 0 before the first change.
+     */
+    private double rate;
+
+    private long changes;
+
+    ChangeRate(final String key) {
+        this.key = key;
+    }
+
+    /**
+     * @param target
+     * @return The statistics of the target, or null when they are disabled.
+     */
+    public static ChangeRate getInstance(final PollTarget target) {
+        if (!ENABLED) {
+            return null;
+        }
+        synchronized (rates) {
+            ChangeRate rate = rates.get(target.getKey());
+            if (rate == null) {
+                rate = new ChangeRate(target.getKey());
+                rates.put(target.getKey(), rate);
+            }
+            return rate;
+        }
+    }
+
+    /**
+     * @return The last known tag while the next check is not due, otherwise
+     * null.
+     */
+    public synchronized DockerTag getUntilDue() {
+        long now = System.currentTimeMillis();
+        if (this.tag == null || now - this.checked >= this.getInterval(now)) {
+            return null;
+        }
+        return this.tag;
+    }
+
+    /**
+     * Count the tag the registry answered.
+     *
+     * @param tag
+     */
+    public synchronized void checked(final DockerTag tag) {
+        long now = System.currentTimeMillis();
+        if (this.tag == null) {
+            this.changed = now;
+        } else if (!same(this.tag, tag)) {
+            double hours = Math.max(now - this.changed, 1) / (double) HOUR;
+            this.rate = this.rate == 0 ? 1 / hours : WEIGHT / hours + (1 - WEIGHT) * this.rate;
+            this.changed = now;
+            this.changes++;
+            LOG.debug("Tag " + this.key + " changed, next check in " + this.getInterval(now) + "ms");
+        }
+        this.tag = tag;
+        this.checked = now;
+    }
+
+    private static boolean same(final DockerTag known, final DockerTag tag) {
+        return known.getTag().equals(tag.getTag())
+                && (known.getHash() == null ? tag.getHash() == null : known.getHash().equals(tag.getHash()));
+    }
+
+    /**
+     * @return The time between two checks: a tenth of the expected time
+     * between two changes, or of the time since the last change when that is
+     * longer.
+     */
+    long getInterval(final long now) {
+        double expected = this.rate == 0 ? 0 : HOUR / this.rate;
+        expected = Math.max(expected, now - this.changed);
+        return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, (long) (expected / CHECKS)));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %.2f changes/h, %d changes, check every %dms",
+                this.key, this.rate, this.changes, this.getInterval(System.currentTimeMillis()));
+    }
+}
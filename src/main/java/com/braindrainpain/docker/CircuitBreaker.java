@@ -0,0 +1,231 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Circuit breaker for one registry.
+ *
+ * <ul>
+ * <li>CLOSED: the requests pass. After a number of consecutive failures the
+ * breaker opens.</li>
+ * <li>OPEN: the requests fail fast without touching the registry. When the
+ * open time has passed, one probe request is let through.</li>
+ * <li>HALF_OPEN: the probe is running. A successful probe closes the breaker,
+ * a failed one opens it again for twice the time, up to a maximum. An
+ * aborted probe opens it again for the same time. When the probe has not
+ * answered within the probe time, another probe is let through.</li>
+ * </ul>
+ *
+ * @author Jan De Cooman
+ */
+public class CircuitBreaker {
+
+    final private static Logger LOG = Logger.getLoggerFor(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * The answer to a request: it fails fast, it is let through, or it is
+     * the probe of a half-open breaker.
+     */
+    public enum Permit {
+        DENIED, ALLOWED, PROBE
+    }
+
+    final private static ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    final private String registry;
+
+    final private int failureThreshold;
+
+    final private long baseOpenTime;
+
+    final private long maxOpenTime;
+
+    final private long probeTime;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long openTime;
+
+    private long openUntil;
+
+    private long opened;
+
+    private long halfOpened;
+
+    private long closed;
+
+    private long rejected;
+
+    CircuitBreaker(final String registry, final int failureThreshold,
+            final long baseOpenTime, final long maxOpenTime, final long probeTime) {
+        this.registry = registry;
+        this.failureThreshold = failureThreshold;
+        this.baseOpenTime = baseOpenTime;
+        this.maxOpenTime = maxOpenTime;
+        this.probeTime = probeTime;
+        this.openTime = baseOpenTime;
+    }
+
+    /**
+     * @param registry scheme://host:port of the registry.
+     * @return The breaker of the registry.
+     */
+    public static CircuitBreaker getInstance(final String registry) {
+        CircuitBreaker breaker = breakers.get(registry);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(registry,
+                    HttpSupport.getSystemProperty("docker.repo.breaker.failures", 5),
+                    HttpSupport.getSystemProperty("docker.repo.breaker.open", 10 * 1000),
+                    HttpSupport.getSystemProperty("docker.repo.breaker.max.open", 5 * 60 * 1000),
+                    HttpSupport.getSystemProperty("docker.repo.breaker.probe.timeout", 60 * 1000));
+            CircuitBreaker known = breakers.putIfAbsent(registry, breaker);
+            if (known != null) {
+                breaker = known;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * @return All the breakers by registry, for monitoring.
+     */
+    public static Map<String, CircuitBreaker> getBreakers() {
+        return Collections.unmodifiableMap(breakers);
+    }
+
+    /**
+     * Ask permission to send a request. Only the request which gets the
+     * probe must tell when it is aborted, see {@link #recordAborted()}.
+     *
+     * @return DENIED when the request must fail fast.
+     */
+    public synchronized Permit allowRequest() {
+        if (this.state == State.CLOSED) {
+            return Permit.ALLOWED;
+        }
+        long now = System.currentTimeMillis();
+        if (this.state == State.OPEN && now >= this.openUntil) {
+            this.state = State.HALF_OPEN;
+            this.halfOpened++;
+            this.openUntil = now + this.probeTime;
+            LOG.info("Probing registry '" + this.registry + "'");
+            return Permit.PROBE;
+        }
+        if (this.state == State.HALF_OPEN && now >= this.openUntil) {
+            this.openUntil = now + this.probeTime;
+            LOG.info("Probe of registry '" + this.registry + "' did not answer, probing again");
+            return Permit.PROBE;
+        }
+        this.rejected++;
+        return Permit.DENIED;
+    }
+
+    /**
+     * @return true when a request would be let through, without asking.
+     */
+    public synchronized boolean isAvailable() {
+        return this.state == State.CLOSED || System.currentTimeMillis() >= this.openUntil;
+    }
+
+    public synchronized void recordSuccess() {
+        this.failures = 0;
+        if (this.state != State.CLOSED) {
+            this.state = State.CLOSED;
+            this.openTime = this.baseOpenTime;
+            this.closed++;
+            LOG.info("Registry '" + this.registry + "' is back");
+        }
+    }
+
+    public synchronized void recordFailure() {
+        if (this.state == State.HALF_OPEN) {
+            this.openTime = Math.min(this.openTime * 2, this.maxOpenTime);
+            this.open();
+        } else if (this.state == State.CLOSED && ++this.failures >= this.failureThreshold) {
+            this.open();
+        }
+    }
+
+    /**
+     * The probe ended without an answer, e.g. it lost a hedge or its caller
+     * gave up. The breaker opens again for the same time, so the next probe
+     * is let through when it has passed.
+     */
+    public synchronized void recordAborted() {
+        if (this.state == State.HALF_OPEN) {
+            this.open();
+        }
+    }
+
+    private void open() {
+        this.state = State.OPEN;
+        this.openUntil = System.currentTimeMillis() + this.openTime;
+        this.opened++;
+        LOG.warn("Registry '" + this.registry + "' is failing, requests are blocked for "
+                + this.openTime + "ms");
+    }
+
+    public String getRegistry() {
+        return this.registry;
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    public synchronized long getOpenedCount() {
+        return this.opened;
+    }
+
+    public synchronized long getHalfOpenedCount() {
+        return this.halfOpened;
+    }
+
+    public synchronized long getClosedCount() {
+        return this.closed;
+    }
+
+    public synchronized long getRejectedCount() {
+        return this.rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.registry + " " + this.state + " (opened " + this.opened
+                + ", half-opened " + this.halfOpened + ", closed " + this.closed
+                + ", rejected " + this.rejected + ")";
+    }
+}
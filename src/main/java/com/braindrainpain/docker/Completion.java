@@ -0,0 +1,143 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A result which is completed by another thread, with listeners which run
+ * once it is there.
+ *
+ * The listeners run on the thread which completes the result. They must not
+ * block.
+ *
+ * @param <T> The type of the result.
+ * @author Jan De Cooman
+ */
+public class Completion<T> implements Future<T> {
+
+    final private CountDownLatch done = new CountDownLatch(1);
+
+    final private List<Runnable> listeners = new ArrayList<>();
+
+    private T value;
+
+    private Throwable failure;
+
+    private boolean completed;
+
+    /**
+     * @param value
+     * @return false when the result was already there.
+     */
+    public boolean complete(final T value) {
+        return this.finish(value, null);
+    }
+
+    /**
+     * @param failure
+     * @return false when the result was already there.
+     */
+    public boolean fail(final Throwable failure) {
+        return this.finish(null, failure);
+    }
+
+    private boolean finish(final T value, final Throwable failure) {
+        List<Runnable> waiting;
+        synchronized (this) {
+            if (this.completed) {
+                return false;
+            }
+            this.completed = true;
+            this.value = value;
+            this.failure = failure;
+            waiting = new ArrayList<>(this.listeners);
+            this.listeners.clear();
+        }
+        this.done.countDown();
+        for (Runnable listener : waiting) {
+            listener.run();
+        }
+        return true;
+    }
+
+    /**
+     * Run the listener when the result is there, right away when it already
+     * is.
+     *
+     * @param listener
+     */
+    public void whenDone(final Runnable listener) {
+        synchronized (this) {
+            if (!this.completed) {
+                this.listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return this.done.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        this.done.await();
+        return this.result();
+    }
+
+    @Override
+    public T get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!this.done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return this.result();
+    }
+
+    private synchronized T result() throws ExecutionException {
+        if (this.failure != null) {
+            throw new ExecutionException(this.failure.getMessage(), this.failure);
+        }
+        return this.value;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.config.Property;
+import com.thoughtworks.go.plugin.api.material.packagerepository.RepositoryConfiguration;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The credentials of a registry, and the challenge the registry answered
+ * with the last time, per mirror when the registry has mirrors. Once the
+ * challenge is known, the requests carry the Authorization header right
+ * away, so they do not need a second round trip.
+ *
+ * Without a username the requests are anonymous. Registries like the Docker
+ * Hub still want a bearer token for those.
+ *
+ * What is fetched with credentials is only shared with the packages which
+ * have the same credentials, see {@link #getScope()}.
+ *
+ * @author Jan De Cooman
+ */
+public class Credentials {
+
+    /**
+     * Makes the scopes of this JVM useless to guess a password with.
+     */
+    final private static String SALT = Long.toHexString(new SecureRandom().nextLong());
+
+    final private String username;
+
+    final private String password;
+
+    final private String scope;
+
+    final private ConcurrentMap<String, Challenge> challenges = new ConcurrentHashMap<>();
+
+    public Credentials(final String username, final String password) {
+        this.username = StringUtils.isBlank(username) ? null : username;
+        this.password = password == null ? "" : password;
+        this.scope = this.username == null ? null
+                : DigestUtils.sha256Hex(SALT + ":" + this.username + ":" + this.password).substring(0, 16);
+    }
+
+    /**
+     * @param repositoryConfiguration
+     * @return The credentials of the repository configuration.
+     */
+    public static Credentials of(final RepositoryConfiguration repositoryConfiguration) {
+        Property username = repositoryConfiguration.get(Constants.USERNAME);
+        Property password = repositoryConfiguration.get(Constants.PASSWORD);
+        return new Credentials(
+                username == null ? null : username.getValue(),
+                password == null ? null : password.getValue());
+    }
+
+    public boolean isAnonymous() {
+        return this.username == null;
+    }
+
+    public String getUsername() {
+        return this.username;
+    }
+
+    /**
+     * @return null when the requests are anonymous, otherwise a salted hash
+     * of the username and the password. The caches of the plugin put it in
+     * their keys, so a package never sees what was fetched with other
+     * credentials.
+     */
+    public String getScope() {
+        return this.scope;
+    }
+
+    /**
+     * @return The value of a Basic Authorization header, or null when the
+     * requests are anonymous.
+     */
+    public String getBasic() {
+        if (this.isAnonymous()) {
+            return null;
+        }
+        try {
+            return "Basic " + new String(Base64.encodeBase64(
+                    (this.username + ":" + this.password).getBytes("UTF-8")), "US-ASCII");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Learn the challenge of a 401 response.
+     *
+     * @param method The request which got the 401.
+     * @param challenge
+     * @return true when the request can be sent again with an answer.
+     * @throws IOException
+     */
+    public boolean learn(final HttpMethod method, final Challenge challenge) throws IOException {
+        if (challenge == null || (!challenge.isBearer() && this.isAnonymous())) {
+            return false;
+        }
+        String registry = getRegistryKey(method);
+        Challenge previous = this.challenges.get(registry);
+        if (challenge.equals(previous) && challenge.isBearer()) {
+            // the token was rejected, do not use it again
+            TokenCache.getInstance().invalidate(challenge, this);
+        } else if (challenge.equals(previous)) {
+            // the password was rejected
+            return false;
+        }
+        this.challenges.put(registry, challenge);
+        return true;
+    }
+
+    /**
+     * Add the Authorization header for the known challenge.
+     *
+     * @param method
+     * @throws IOException when no token can be fetched.
+     */
+    public void authorize(final HttpMethod method) throws IOException {
+        Challenge known = this.challenges.get(getRegistryKey(method));
+        if (known == null) {
+            return;
+        }
+        String authorization = known.isBearer()
+                ? "Bearer " + TokenCache.getInstance().getToken(known, this)
+                : this.getBasic();
+        if (authorization != null) {
+            method.setRequestHeader("Authorization", authorization);
+        }
+    }
+
+    private static String getRegistryKey(final HttpMethod method) throws IOException {
+        return HttpSupport.getRegistryKey(method.getURI().getURI());
+    }
+
+    @Override
+    public String toString() {
+        return this.isAnonymous() ? "anonymous" : this.username;
+    }
+}
@@ -23,25 +23,66 @@
  */
 package com.braindrainpain.docker;
 
+import java.text.MessageFormat;
+
 /**
  * DockerAPI
  * 
- * A wrapper for the specific URLs from the Docker API.
+ * A wrapper for the specific URLs from the Docker API. Every version knows
+ * its base (ping) endpoint, the tag list of a repository and the endpoint
+ * for a single tag.
+ *
+ * Docker Hub speaks V2, its tags are looked up on the Hub API first, see
+ * {@link DockerHub}.
  *
  * @author Jan De Cooman
  */
 public enum DockerAPI {
     
-    V1("{0}/v1/repositories/{1}/tags");
+    V1("{0}/v1/_ping", "{0}/v1/repositories/{1}/tags", "{0}/v1/repositories/{1}/tags/{2}"),
+    V2("{0}/v2/", "{0}/v2/{1}/tags/list", "{0}/v2/{1}/manifests/{2}"),
+    HUB("{0}/v2/", "{0}/v2/{1}/tags/list", "{0}/v2/{1}/manifests/{2}");
     
+    private final String pingUrl;
+
     private final String url;
 
-    private DockerAPI(final String url) {
+    private final String tagUrl;
+
+    private DockerAPI(final String pingUrl, final String url, final String tagUrl) {
+        this.pingUrl = pingUrl;
         this.url = url;
+        this.tagUrl = tagUrl;
     }
     
+    public String getPingUrl() {
+        return this.pingUrl;
+    }
+
+    /**
+     * @return The pattern of the tag list of a repository.
+     */
     public String getUrl() {
         return this.url;
     }
 
+    /**
+     * @return The pattern of a single tag. For V2 this is the manifest.
+     */
+    public String getTagUrl() {
+        return this.tagUrl;
+    }
+
+    public String ping(final String registry) {
+        return MessageFormat.format(this.pingUrl, registry);
+    }
+
+    public String tags(final String registry, final String repository) {
+        return MessageFormat.format(this.url, registry, repository);
+    }
+
+    public String tag(final String registry, final String repository, final String tag) {
+        return MessageFormat.format(this.tagUrl, registry, repository, tag);
+    }
+
 }
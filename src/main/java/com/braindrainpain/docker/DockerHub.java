@@ -0,0 +1,280 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Docker Hub.
+ *
+ * Next to its registry, the Hub has an API which lists the tags of a
+ * repository ordered by their last update, with their digests. The first
+ * page of that list tells which tags changed lately, so a poll does not need
+ * the tag list of the registry nor a manifest request for them.
+ *
+ * <pre>
+ * GET https://hub.docker.com/v2/repositories/library/nginx/tags?page_size=25&amp;ordering=last_updated
+ * {"next": "...", "results": [{"name": "latest", "digest": "sha256:...", "last_updated": "2024-05-01T12:34:56.123456Z"}]}
+ * </pre>
+ *
+ * @author Jan De Cooman
+ */
+public class DockerHub {
+
+    /**
+     * The hosts of the registry of the Hub.
+     */
+    final private static String HOSTS = "docker.io,index.docker.io,registry-1.docker.io,registry.hub.docker.com";
+
+    final private static String URL = "https://hub.docker.com";
+
+    /**
+     * The number of the most recently updated tags fetched per poll.
+     */
+    final private static int PAGE_SIZE = 25;
+
+    /**
+     * The time stamps of the Hub are cut to the second, and the Hub updates
+     * them apart from the registry. A tag is only taken as unchanged when it
+     * was resolved well after the oldest update on the page.
+     */
+    final private static long MARGIN = 60 * 1000;
+
+    /**
+     * Anonymous, the public repositories need no login.
+     */
+    final private static Credentials CREDENTIALS = new Credentials(null, null);
+
+    private DockerHub() {
+    }
+
+    /**
+     * @param registry The URL of the registry.
+     * @return true when the registry is the one of Docker Hub.
+     */
+    public static boolean isHub(final String registry) {
+        try {
+            return hosts().contains(new URL(registry).getHost().toLowerCase());
+        } catch (MalformedURLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param repository The repository as configured.
+     * @return The full name of the repository, the official images without
+     * a namespace are in 'library'.
+     */
+    public static String repository(final String repository) {
+        return repository.contains("/") ? repository : "library/" + repository;
+    }
+
+    /**
+     * @param repository The repository, official images are in 'library'.
+     * @return The URL of the most recently updated tags of the repository.
+     */
+    public static String newestTags(final String repository) {
+        String name = repository(repository);
+        int pageSize = Math.max(1, Math.min(100, HttpSupport.getSystemProperty("docker.repo.hub.page.size", PAGE_SIZE)));
+        return System.getProperty("docker.repo.hub.url", URL) + "/v2/repositories/" + name
+                + "/tags?page_size=" + pageSize + "&ordering=last_updated";
+    }
+
+    /**
+     * The settings are read on every call, they can change while the plugin
+     * runs.
+     */
+    private static List<String> hosts() {
+        return Arrays.asList(System.getProperty("docker.repo.hub.hosts", HOSTS).split("\\s*,\\s*"));
+    }
+
+    public static Credentials getCredentials() {
+        return CREDENTIALS;
+    }
+
+    /**
+     * The most recently updated tags of a repository.
+     */
+    public static class Page extends TagList {
+
+        /**
+         * The Hub could not be asked, e.g. for a private repository. Nothing
+         * is known from it.
+         */
+        public static Page unavailable() {
+            return new Page(new HashMap<String, String>(), Long.MAX_VALUE, false);
+        }
+
+        final private long oldest;
+
+        final private boolean complete;
+
+        private Page(final Map<String, String> tags, final long oldest, final boolean complete) {
+            super(tags, null, null, System.currentTimeMillis());
+            this.oldest = oldest;
+            this.complete = complete;
+        }
+
+        /**
+         * Read a page. Only the name, the digest and the last update of the
+         * tags are kept.
+         *
+         * @param reader
+         * @return Page
+         * @throws IOException
+         */
+        public static Page parse(final Reader reader) throws IOException {
+            Map<String, String> tags = new HashMap<>();
+            long oldest = Long.MAX_VALUE;
+            boolean dated = true;
+            boolean complete = true;
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+            JsonReader json = new JsonReader(reader);
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if ("next".equals(name) && json.peek() == JsonToken.STRING) {
+                    complete = json.nextString().isEmpty();
+                } else if ("results".equals(name) && json.peek() == JsonToken.BEGIN_ARRAY) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        String[] tag = readTag(json);
+                        if (tag[0] != null) {
+                            tags.put(tag[0], tag[1]);
+                        }
+                        long updated = time(format, tag[2]);
+                        dated &= updated > 0;
+                        oldest = Math.min(oldest, updated);
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+            return new Page(tags, dated ? oldest : Long.MAX_VALUE, complete);
+        }
+
+        /**
+         * @return name, digest and last update of a result.
+         */
+        static String[] readTag(final JsonReader json) throws IOException {
+            String[] tag = new String[3];
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (json.peek() != JsonToken.STRING) {
+                    json.skipValue();
+                } else if ("name".equals(name)) {
+                    tag[0] = json.nextString();
+                } else if ("digest".equals(name)) {
+                    tag[1] = json.nextString();
+                } else if ("last_updated".equals(name)) {
+                    tag[2] = json.nextString();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+            return tag;
+        }
+
+        /**
+         * @return The time of '2024-05-01T12:34:56.123456Z' cut to the
+         * second, or 0 when there is none. A page with a tag without it does
+         * not let any other tag pass as unchanged.
+         */
+        static long time(final SimpleDateFormat format, final String value) {
+            if (value == null || value.length() < 19) {
+                return 0;
+            }
+            try {
+                return format.parse(value.substring(0, 19)).getTime();
+            } catch (ParseException e) {
+                return 0;
+            }
+        }
+
+        /**
+         * @return true when the page holds all the tags of the repository. A
+         * tag which is not on it does not exist.
+         */
+        public boolean isComplete() {
+            return this.complete;
+        }
+
+        /**
+         * A tag which is not on the page was last updated before the oldest
+         * update on it.
+         *
+         * @param resolved The time the digest of the tag was resolved.
+         * @return true when that digest is still the one of the tag.
+         */
+        public boolean isUnchangedSince(final long resolved) {
+            return this.oldest != Long.MAX_VALUE && this.oldest + MARGIN <= resolved;
+        }
+    }
+
+    /**
+     * A digest resolved from the registry, for a tag which is not on the
+     * page.
+     */
+    public static class Resolved {
+
+        final private DockerTag tag;
+
+        final private long time;
+
+        /**
+         * @param tag
+         * @param time The time of the registry when it answered.
+         */
+        public Resolved(final DockerTag tag, final long time) {
+            this.tag = tag;
+            this.time = time;
+        }
+
+        public DockerTag getTag() {
+            return this.tag;
+        }
+
+        public long getTime() {
+            return this.time;
+        }
+    }
+}
@@ -53,6 +53,9 @@ public class DockerMaterialConfiguration implements PackageMaterialConfiguration
      *
      * NOTE: A repository in Go is the registry from Docker.
      *
+     * The credentials are optional. Without them the registry is called
+     * anonymously.
+     *
      * @return RepositoryConfiguration
      */
     @Override
@@ -60,6 +63,12 @@ public class DockerMaterialConfiguration implements PackageMaterialConfiguration
         RepositoryConfiguration repositoryConfiguration = new RepositoryConfiguration();
         repositoryConfiguration.add(new PackageMaterialProperty(Constants.REGISTRY).
                 with(DISPLAY_NAME, "Registry URL").with(DISPLAY_ORDER, 0));
+        repositoryConfiguration.add(new PackageMaterialProperty(Constants.USERNAME).
+                with(REQUIRED, false).with(PART_OF_IDENTITY, false).
+                with(DISPLAY_NAME, "Username").with(DISPLAY_ORDER, 1));
+        repositoryConfiguration.add(new PackageMaterialProperty(Constants.PASSWORD).
+                with(REQUIRED, false).with(PART_OF_IDENTITY, false).with(SECURE, true).
+                with(DISPLAY_NAME, "Password").with(DISPLAY_ORDER, 2));
         return repositoryConfiguration;
     }
 
@@ -105,6 +114,13 @@ public class DockerMaterialConfiguration implements PackageMaterialConfiguration
             return validationResult;
         }
 
+        Property username = repositoryConfiguration.get(Constants.USERNAME);
+        Property password = repositoryConfiguration.get(Constants.PASSWORD);
+        if (password != null && StringUtils.isNotEmpty(password.getValue())
+                && (username == null || StringUtils.isBlank(username.getValue()))) {
+            validationResult.addError(new ValidationError(Constants.USERNAME, "Username is required with a password"));
+        }
+
         DockerRegistry.getInstance(registry.getValue()).validate(validationResult);
         return validationResult;
     }
@@ -150,6 +166,15 @@ public class DockerMaterialConfiguration implements PackageMaterialConfiguration
             return validationResult;
         }
 
+        if (TagMatcher.isPattern(tagName)) {
+            try {
+                TagMatcher.compile(tagName);
+            } catch (IllegalArgumentException e) {
+                validationResult.addError(new ValidationError(Constants.TAG, "Invalid tag pattern: " + e.getMessage()));
+                return validationResult;
+            }
+        }
+
         return validationResult;
     }
 
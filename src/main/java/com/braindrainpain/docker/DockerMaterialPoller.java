@@ -32,6 +32,8 @@ import com.thoughtworks.go.plugin.api.response.Result;
 import com.thoughtworks.go.plugin.api.response.validation.ValidationError;
 import com.thoughtworks.go.plugin.api.response.validation.ValidationResult;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Docker Material Poller
@@ -43,30 +45,204 @@ public class DockerMaterialPoller implements PackageMaterialPoller {
     final private static Logger LOG
             = Logger.getLoggerFor(DockerMaterialPoller.class);
 
+    /**
+     * Detect changes with a HEAD on the manifest instead of the tag list.
+     */
+    final private static boolean FAST_CHECK
+            = Boolean.parseBoolean(System.getProperty("docker.repo.fast.check", "true"));
+
+    final private static String RESOLVED_TAG = "RESOLVED_TAG";
+
     @Override
     public PackageRevision getLatestRevision(
             final PackageConfiguration packageConfiguration, 
             final RepositoryConfiguration repositoryConfiguration) {
         
         // the fields must be valid
-        this.validateData(repositoryConfiguration, packageConfiguration);
+        PollTarget target = this.getTarget(repositoryConfiguration, packageConfiguration);
 
         // fetch the latest tag
-        DockerTag tag = DockerRepository.getInstance(repositoryConfiguration).getLatestRevision(packageConfiguration);
-        return new PackageRevision(tag.getHash(), new Date(), "docker");
+        return this.revision(target, this.fetchTag(target));
+    }
+
+    /**
+     * @throws RuntimeException with the failure of the target when the tag
+     * was not found.
+     */
+    private PackageRevision revision(final PollTarget target, final DockerTag tag) {
+        if (tag == null) {
+            String failure = DockerRepository.getInstance().getFailure(target);
+            throw new RuntimeException(failure == null ? DockerRepository.notFound(target) : failure);
+        }
+        return this.revision(tag);
+    }
+
+    /**
+     * The revision is the hash of the tag. The name of the tag is passed to
+     * the pipeline as RESOLVED_TAG, which matters when the tag is a pattern.
+     */
+    private PackageRevision revision(final DockerTag tag) {
+        return this.revision(tag.getTag(), tag.getHash());
+    }
+
+    private PackageRevision revision(final String tagName, final String digest) {
+        Map<String, String> data = new HashMap<>();
+        data.put(RESOLVED_TAG, tagName);
+        return new PackageRevision(digest, new Date(), "docker", data);
+    }
+
+    /**
+     * Get the compiled target of the package. The configurations are only
+     * validated the first time they are seen.
+     */
+    private PollTarget getTarget(
+            final RepositoryConfiguration repositoryConfiguration,
+            final PackageConfiguration packageConfiguration) {
+
+        PollTarget target = PollTarget.lookup(repositoryConfiguration, packageConfiguration);
+        if (target == null) {
+            this.validateData(repositoryConfiguration, packageConfiguration);
+            target = PollTarget.compile(repositoryConfiguration, packageConfiguration);
+        }
+        return target;
+    }
+
+    /**
+     * Take the last fetched tag when no push was notified since, the last
+     * known tag when the next check of the tag is not due yet, or the tag
+     * from the prefetch scheduler when it has a fresh one. A pushed tag skips
+     * them. Otherwise fetch it and hand it to the scheduler.
+     */
+    private DockerTag fetchTag(final PollTarget target) {
+        this.countPoll(target);
+
+        PushListener push = PushListener.getInstance();
+        boolean dirty = false;
+        if (push != null) {
+            DockerTag clean = push.get(target);
+            if (clean != null) {
+                return clean;
+            }
+            dirty = push.isDirty(target);
+        }
+
+        ChangeRate rate = ChangeRate.getInstance(target);
+        if (rate != null && !dirty) {
+            DockerTag known = rate.getUntilDue();
+            if (known != null) {
+                return known;
+            }
+        }
+
+        PrefetchScheduler prefetch = PrefetchScheduler.getInstance();
+        if (prefetch != null && !dirty) {
+            DockerTag tag = prefetch.get(target);
+            if (tag != null) {
+                return tag;
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        DockerTag tag = DockerRepository.getInstance().getLatestRevision(target);
+        if (push != null && tag != null) {
+            push.put(target, tag, start);
+        }
+        if (prefetch != null && tag != null) {
+            prefetch.put(target, tag);
+        }
+        if (rate != null && tag != null) {
+            rate.checked(tag);
+        }
+        return tag;
+    }
+
+    private void countPoll(final PollTarget target) {
+        PollMetrics.forRegistry(target.getRegistryKey()).poll();
+        PollMetrics.forRepository(target).poll();
     }
 
+    /**
+     * Refresh the tags and decide from the delta between the snapshots of
+     * the repository before and after the refresh: the tag changed when it
+     * was added, removed or re-pointed. When Go knows another digest than
+     * the snapshot had, the current digest is compared instead. With the
+     * fast check only the headers of the manifest are fetched, otherwise the
+     * tag is fetched like for the latest revision. When the prefetch
+     * scheduler runs, the prefetched tag is used instead.
+     *
+     * No revision is built when Go already knows the digest of the tag.
+     * Before the next check of the tag is due, or while no push of the tag
+     * was notified, the last known tag answers without a snapshot.
+     */
     @Override
     public PackageRevision latestModificationSince(
             final PackageConfiguration packageConfiguration, 
             final RepositoryConfiguration repositoryConfiguration, 
             final PackageRevision packageRevision) {
-        PackageRevision latestRevision = this.getLatestRevision(packageConfiguration, repositoryConfiguration);
 
-        if (!latestRevision.getRevision().contentEquals(packageRevision.getRevision())) {
-             return latestRevision;
+        PollTarget target = this.getTarget(repositoryConfiguration, packageConfiguration);
+        PushListener push = PushListener.getInstance();
+        boolean dirty = push != null && push.isDirty(target);
+        ChangeRate rate = ChangeRate.getInstance(target);
+        DockerTag known = push == null ? null : push.get(target);
+        if (known == null && rate != null && !dirty) {
+            known = rate.getUntilDue();
+        }
+        if (known != null) {
+            this.countPoll(target);
+            return packageRevision.getRevision().equals(known.getHash()) ? null : this.revision(known);
+        }
+
+        DockerRepository repository = DockerRepository.getInstance();
+        TagSnapshot before = repository.getSnapshot(target);
+        long start = System.currentTimeMillis();
+
+        DockerTag fetched = null;
+        if (FAST_CHECK && (PrefetchScheduler.getInstance() == null || dirty)) {
+            fetched = repository.getDigest(target);
+        }
+        if (fetched != null) {
+            this.countPoll(target);
+        } else {
+            fetched = this.fetchTag(target);
+        }
+
+        TagSnapshot after = repository.getSnapshot(target);
+        String tagName = repository.resolveTag(target);
+        String digest = tagName == null ? null : after.getDigest(tagName);
+        if (digest == null) {
+            // the snapshot does not tell the tag, the fetched tag is reported
+            PackageRevision latestRevision = this.revision(target, fetched);
+            if (!latestRevision.getRevision().contentEquals(packageRevision.getRevision())) {
+                return latestRevision;
+            }
+            return null;
+        }
+
+        TagDelta delta = TagDelta.between(before, after);
+        boolean changed;
+        if (packageRevision.getRevision().equals(before.getDigest(tagName))) {
+            // Go knows the digest the snapshot had, the refresh tells whether it changed
+            changed = delta.affects(tagName);
+        } else {
+            // the snapshot did not know the tag yet, or another package saw the change first
+            changed = !digest.equals(packageRevision.getRevision());
+        }
+
+        if (rate != null || push != null) {
+            DockerTag tag = new DockerTag(tagName, digest);
+            if (rate != null) {
+                rate.checked(tag);
+            }
+            if (push != null) {
+                push.put(target, tag, start);
+            }
+        }
+        if (!changed) {
+            return null;
         }
-        return null;
+        LOG.info("Tag '" + tagName + "' of " + target.getName() + " changed: " + delta);
+        return this.revision(tagName, digest);
     }
 
     /**
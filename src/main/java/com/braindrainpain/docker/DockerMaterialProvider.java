@@ -45,11 +45,22 @@ public class DockerMaterialProvider implements PackageMaterialProvider {
 
     @Load
     public void onLoad(PluginContext context) {
+        HttpSupport.startup();
+        PollMetrics.startup();
+        DockerRepository.startup();
+        PrefetchScheduler.startup();
+        PushListener.startup();
         LOG.info("Docker plugin loaded");
     }
 
     @UnLoad
     public void onUnLoad(final PluginContext context) {
+        PushListener.shutdown();
+        PrefetchScheduler.shutdown();
+        DockerRepository.shutdown();
+        TokenCache.shutdown();
+        PollMetrics.shutdown();
+        HttpSupport.shutdown();
         LOG.info("Removed Docker plugin" );
     }
 
@@ -33,7 +33,9 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
-import org.apache.commons.httpclient.HttpClient;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.lang.StringUtils;
@@ -49,8 +51,15 @@ public class DockerRegistry extends HttpSupport {
 
     final private String url;
 
+    final private Credentials credentials;
+
     final private static List<String> protocols = new ArrayList<>(2);
 
+    /**
+     * The API version per registry URL. A registry is probed only once.
+     */
+    final private static ConcurrentMap<String, DockerAPI> apiVersions = new ConcurrentHashMap<>();
+
     /**
      * Supported protocols.
      */
@@ -64,33 +73,40 @@ public class DockerRegistry extends HttpSupport {
      * 
      * @param url RegistryURL
      */
-    private DockerRegistry(final String url) {
+    private DockerRegistry(final String url, final Credentials credentials) {
         this.url = url;
+        this.credentials = credentials;
     }
 
     public static DockerRegistry getInstance(final String url) {
-        return new DockerRegistry(url);
+        return new DockerRegistry(url, new Credentials(null, null));
     }
     
     public static DockerRegistry getInstance(
             final RepositoryConfiguration repositoryPluginConfigurations) {
         
         Property registry = repositoryPluginConfigurations.get(Constants.REGISTRY);
-        return new DockerRegistry(registry.getValue());
+        return new DockerRegistry(registry.getValue(), Credentials.of(repositoryPluginConfigurations));
     }
     
     /**
-     * Validate the URL.
+     * Validate the URL, or every URL of a list of mirrors.
      *
      * @param validationResult The list with invalid fields.
      */
     public void validate(final ValidationResult validationResult) {
+        if (StringUtils.isBlank(url)) {
+            validationResult.addError(new ValidationError(Constants.REGISTRY, "URL is empty"));
+            return;
+        }
+        for (String endpoint : RegistryMirrors.parse(this.url)) {
+            this.validate(endpoint, validationResult);
+        }
+    }
+
+    private void validate(final String url, final ValidationResult validationResult) {
         try {
-            if (StringUtils.isBlank(url)) {
-                validationResult.addError(new ValidationError(Constants.REGISTRY, "URL is empty"));
-                return;
-            }
-            URL validatedUrl = new URL(this.url);
+            URL validatedUrl = new URL(url);
             if (!protocols.contains(validatedUrl.getProtocol())) {
                 validationResult.addError(new ValidationError(Constants.REGISTRY, "Invalid URL: Only 'http' and 'https' protocols are supported."));
             }
@@ -104,15 +120,21 @@ public class DockerRegistry extends HttpSupport {
     }
 
     /**
-     * Checks the connection to the registry
+     * Checks the connection to the registry, or to every mirror, with the
+     * credentials when they are configured.
      */
     public void checkConnection() {
+        for (String endpoint : RegistryMirrors.parse(this.url)) {
+            this.checkConnection(endpoint);
+        }
+    }
+
+    private void checkConnection(final String url) {
         LOG.debug("Checking: '" + url + "'");
-        HttpClient client = getHttpClient();
         GetMethod method = new GetMethod(url);
         method.setFollowRedirects(false);
         try {
-            int returnCode = client.executeMethod(method);
+            int returnCode = this.execute(method, null, this.credentials);
             if (returnCode != HttpStatus.SC_OK) {
                 LOG.error("Not ok from: '" + url + "'");
                 throw new RuntimeException("Not ok from: '" + url +"'");
@@ -120,6 +142,54 @@ public class DockerRegistry extends HttpSupport {
         } catch (IOException e) {
             LOG.error("Error connecting to: '" + url + "'");
             throw new RuntimeException("Error connecting to: '" + url +"'");
+        } finally {
+            this.release(method);
+        }
+    }
+
+    /**
+     * Find out which API the registry speaks. The base endpoint of V2 is
+     * probed once and the answer is kept for all the next polls. Docker Hub
+     * is known by its host.
+     *
+     * @return DockerAPI
+     */
+    public DockerAPI getApiVersion() {
+        DockerAPI api = apiVersions.get(url);
+        if (api == null) {
+            api = DockerHub.isHub(url) ? DockerAPI.HUB : this.probeApiVersion();
+            apiVersions.put(url, api);
+            LOG.info("Registry '" + url + "' speaks " + api);
+        }
+        return api;
+    }
+
+    /**
+     * A V2 registry answers the base endpoint with 200, or with 401 when it
+     * needs authentication. It also sends the API version header. A throttled
+     * or failing registry is not taken for V1.
+     */
+    private DockerAPI probeApiVersion() {
+        GetMethod method = new GetMethod(DockerAPI.V2.ping(url));
+        method.setFollowRedirects(false);
+        try {
+            int returnCode = this.execute(method, null, this.credentials);
+            if (returnCode == 429 || returnCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                // the registry cannot tell right now, probe again on the next poll
+                throw new IOException("Unexpected status " + returnCode);
+            }
+            Header version = method.getResponseHeader("Docker-Distribution-API-Version");
+            if (returnCode == HttpStatus.SC_OK
+                    || returnCode == HttpStatus.SC_UNAUTHORIZED
+                    || (version != null && version.getValue().startsWith("registry/2"))) {
+                return DockerAPI.V2;
+            }
+            return DockerAPI.V1;
+        } catch (IOException e) {
+            LOG.error("Error connecting to: '" + url + "'");
+            throw new RuntimeException("Error connecting to: '" + url + "'", e);
+        } finally {
+            this.release(method);
         }
     }
 
@@ -23,19 +23,26 @@ SOFTWARE.
  */
 package com.braindrainpain.docker;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.thoughtworks.go.plugin.api.material.packagerepository.PackageConfiguration;
-import com.thoughtworks.go.plugin.api.material.packagerepository.RepositoryConfiguration;
-
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.text.MessageFormat;
 import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.util.HashMap;
 import java.util.Map;
-import org.apache.commons.httpclient.HttpClient;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.URI;
 import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
 
 /**
  * Docker Repository connector.
@@ -46,59 +53,886 @@ public class DockerRepository extends HttpSupport {
 
     final private static Logger LOG = Logger.getLoggerFor(DockerRepository.class);
 
-    final private RepositoryConfiguration repositoryConfiguration;
+    /**
+     * The manifest types we accept from a V2 registry. The digest depends on
+     * the type, so it must be the same as the one used by 'docker pull'.
+     */
+    final private static String MANIFEST_TYPES
+            = "application/vnd.docker.distribution.manifest.v2+json, "
+            + "application/vnd.docker.distribution.manifest.list.v2+json, "
+            + "application/vnd.oci.image.manifest.v1+json, "
+            + "application/vnd.oci.image.index.v1+json, "
+            + "application/vnd.docker.distribution.manifest.v1+prettyjws";
+
+    /**
+     * The validators of the tag lists and manifests, shared by all the polls.
+     */
+    final private static ValidatorCache validators = new ValidatorCache(
+            getSystemProperty("docker.repo.validator.cache.size", 5000));
+
+    /**
+     * The tag lists shared by the packages of the same repository.
+     */
+    final private static TagListCache tagLists = new TagListCache(
+            getSystemProperty("docker.repo.tags.cache.ttl", 30 * 1000),
+            getSystemProperty("docker.repo.tags.cache.size", 1000));
+
+    /**
+     * The most recently updated tags of the Docker Hub repositories, shared
+     * like the tag lists.
+     */
+    final private static TagListCache hubPages = new TagListCache(
+            getSystemProperty("docker.repo.tags.cache.ttl", 30 * 1000),
+            getSystemProperty("docker.repo.tags.cache.size", 1000));
+
+    /**
+     * The digests of the Docker Hub tags which are not on the page, and when
+     * they were resolved.
+     */
+    final private static ConcurrentMap<String, DockerHub.Resolved> hubTags = new ConcurrentHashMap<>();
+
+    /**
+     * The repositories and tags which cannot be polled, keyed by the list key
+     * or the key of the target.
+     */
+    final private static NegativeCache failures = new NegativeCache(
+            getSystemProperty("docker.repo.negative.cache.ttl", 2 * 60 * 1000),
+            getSystemProperty("docker.repo.targets.cache.size", 10000));
+
+    /**
+     * The number of tags per page of a V2 tag list. With 0 the registry
+     * chooses, the pages it sends are still followed.
+     */
+    final private static int PAGE_SIZE = getSystemProperty("docker.repo.tags.page.size", 0);
 
-    private DockerRepository(final RepositoryConfiguration repositoryConfiguration) {
-        this.repositoryConfiguration = repositoryConfiguration;
+    /**
+     * The unread rest of a response up to this size is drained so the
+     * connection can be reused. A larger rest drops the connection.
+     */
+    final private static long DRAIN_LIMIT = 64 * 1024;
+
+    /**
+     * The sorted tags of the repositories polled with a tag pattern.
+     */
+    final private static ConcurrentMap<String, TagIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * The known tags and digests per repository, and their last change.
+     */
+    final private static ConcurrentMap<String, TagSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    final private static ConcurrentMap<String, TagDelta> deltas = new ConcurrentHashMap<>();
+
+    final private static DockerRepository instance = new DockerRepository();
+
+    private DockerRepository() {
     }
 
-    public static DockerRepository getInstance(final RepositoryConfiguration repositoryConfiguration) {
-        return new DockerRepository(repositoryConfiguration);
+    public static DockerRepository getInstance() {
+        return instance;
     }
 
-    public DockerTag getLatestRevision(final PackageConfiguration packageConfiguration) {
-        String tagName = packageConfiguration.get(Constants.TAG).getValue();        
-        JsonObject jsonTags = this.allTags(packageConfiguration);
-        return this.getLatestTag(jsonTags, tagName);
+    /**
+     * Fetch the tag of the target. After a restart a known target is answered
+     * from the revision cache until its warmup ends.
+     *
+     * @param target
+     * @return DockerTag or null when the tag does not exist.
+     */
+    public DockerTag getLatestRevision(final PollTarget target) {
+        RevisionStore store = RevisionStore.getInstance();
+        if (store == null) {
+            return this.fetchLatestRevision(target);
+        }
+        DockerTag warm = getWarm(store, target);
+        if (warm != null) {
+            record(target, warm);
+            return warm;
+        }
+        DockerTag result = this.fetchLatestRevision(target);
+        store.put(target, result);
+        return result;
     }
 
-    private DockerTag getLatestTag(final JsonObject tags, final String tagName) {
-        DockerTag result = null;
-        for (Map.Entry<String, JsonElement> entry : tags.entrySet()) {
-            if (tagName.equals(entry.getKey())) {
-                result = new DockerTag(entry.getKey(), entry.getValue().getAsString());
-                LOG.info("Found tag: " + result);
-                break;
+    /**
+     * @return The cached tag during the warmup, or null when a push has
+     * changed the target since.
+     */
+    private static DockerTag getWarm(final RevisionStore store, final PollTarget target) {
+        PushListener listener = PushListener.getInstance();
+        if (listener != null && listener.isDirty(target)) {
+            return null;
+        }
+        return store.getWarm(target);
+    }
+
+    /**
+     * A target which failed with a missing repository or tag, or with
+     * refused credentials, gets no request until the failure expires.
+     */
+    private DockerTag fetchLatestRevision(final PollTarget target) {
+        if (this.getFailure(target) != null) {
+            return null;
+        }
+        DockerTag result = this.lookupTag(target);
+        if (result == null && this.getFailure(target) == null) {
+            failed(target.getKey(), notFound(target));
+        }
+        return result;
+    }
+
+    /**
+     * @param target
+     * @return Why the target cannot be polled, or null when it did not fail
+     * lately.
+     */
+    public String getFailure(final PollTarget target) {
+        String failure = failures.get(target.getListKey());
+        return failure == null ? failures.get(target.getKey()) : failure;
+    }
+
+    /**
+     * @return The message of a tag which is not in the repository.
+     */
+    public static String notFound(final PollTarget target) {
+        return "Tag '" + target.getTag() + "' not found in " + target.getName();
+    }
+
+    private static void failed(final String key, final String reason) {
+        LOG.warn(reason);
+        failures.put(key, reason);
+    }
+
+    /**
+     * Remember a response which will not change on the next poll: 404, or
+     * 401 and 403 after the credentials were sent.
+     *
+     * @param key The list key for the tag list, the target key otherwise.
+     * Both are scoped by the credentials, refused credentials only block the
+     * packages which send them.
+     * @param status
+     * @param what The resource, as in "repository http://...".
+     */
+    private static void refused(final String key, final int status, final String what) {
+        if (status == HttpStatus.SC_NOT_FOUND) {
+            failed(key, "Not found: " + what);
+        } else if (status == HttpStatus.SC_UNAUTHORIZED || status == HttpStatus.SC_FORBIDDEN) {
+            failed(key, "Access denied (" + status + ") to " + what + ", check the credentials");
+        }
+    }
+
+    private DockerTag lookupTag(final PollTarget target) {
+        if (target.getMatcher() != null) {
+            return this.getMatchingTag(target);
+        }
+        if (target.getApi() == DockerAPI.HUB) {
+            return this.getHubTag(target);
+        }
+
+        DockerTag listed;
+        if (tagLists.isEnabled()) {
+            listed = this.getTagList(target).get(target.getTag());
+        } else {
+            listed = this.allTags(target);
+        }
+        if (target.getApi() == DockerAPI.V1 || listed == null) {
+            return listed;
+        }
+
+        // V2 only lists the names, the digest comes with the manifest
+        return this.getManifestTag(target, target.getTag(), target.getTagUrl());
+    }
+
+    /**
+     * Resolve the highest tag which matches the pattern of the target. The
+     * complete tag list is needed for that.
+     *
+     * @param target
+     * @return DockerTag or null when no tag matches.
+     */
+    private DockerTag getMatchingTag(final PollTarget target) {
+        TagList list = this.getTagList(target);
+        TagIndex index = getIndex(target);
+        index.update(list);
+
+        String tagName = index.resolve(target.getMatcher());
+        if (tagName == null) {
+            return null;
+        }
+        LOG.debug("Tag '" + tagName + "' matches " + target.getMatcher());
+        if (target.getApi() == DockerAPI.V1) {
+            return list.get(tagName);
+        }
+        return this.getManifestTag(target, tagName,
+                target.getApi().tag(target.getRegistry(), target.getRepository(), tagName));
+    }
+
+    private static TagIndex getIndex(final PollTarget target) {
+        TagIndex index = indexes.get(target.getListKey());
+        if (index == null) {
+            TagIndex created = new TagIndex();
+            index = indexes.putIfAbsent(target.getListKey(), created);
+            if (index == null) {
+                index = created;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * The tag the target polls. For a pattern this is the highest match of
+     * the last tag list.
+     *
+     * @param target
+     * @return The name of the tag, or null when no tag matches.
+     */
+    public String resolveTag(final PollTarget target) {
+        if (target.getMatcher() == null) {
+            return target.getTag();
+        }
+        return getIndex(target).resolve(target.getMatcher());
+    }
+
+    /**
+     * @param target
+     * @return The tags and digests of the repository of the target, as far
+     * as they have been fetched.
+     */
+    public TagSnapshot getSnapshot(final PollTarget target) {
+        TagSnapshot snapshot = snapshots.get(target.getListKey());
+        return snapshot == null ? TagSnapshot.EMPTY : snapshot;
+    }
+
+    /**
+     * @param target
+     * @return The last change of the tags of the repository of the target.
+     */
+    public TagDelta getLastDelta(final PollTarget target) {
+        TagDelta delta = deltas.get(target.getListKey());
+        return delta == null ? TagDelta.EMPTY : delta;
+    }
+
+    private static void record(final PollTarget target, final TagList list) {
+        TagSnapshot before;
+        TagSnapshot after;
+        do {
+            before = snapshots.get(target.getListKey());
+            after = (before == null ? TagSnapshot.EMPTY : before).withList(list);
+        } while (!swap(target, before, after));
+        recordDelta(target, before, after);
+    }
+
+    private static void record(final PollTarget target, final DockerTag tag) {
+        if (tag == null) {
+            return;
+        }
+        TagSnapshot before;
+        TagSnapshot after;
+        do {
+            before = snapshots.get(target.getListKey());
+            after = (before == null ? TagSnapshot.EMPTY : before).withTag(tag.getTag(), tag.getHash());
+        } while (!swap(target, before, after));
+        recordDelta(target, before, after);
+    }
+
+    /**
+     * Execute a request of the target, with its metrics and credentials.
+     */
+    private int execute(final HttpMethod method, final PollTarget target) throws IOException {
+        return this.execute(method, PollMetrics.forRepository(target), target.getCredentials(),
+                target.getMirrors());
+    }
+
+    /**
+     * Keep the validators in the revision cache.
+     */
+    private static void persist(final String key, final ValidatorCache.Entry entry) {
+        RevisionStore store = RevisionStore.getInstance();
+        if (store != null) {
+            store.putValidator(key, entry);
+        }
+    }
+
+    /**
+     * Open the revision cache and restore the validators from it.
+     */
+    public static void startup() {
+        RevisionStore.startup(validators);
+    }
+
+    public static void shutdown() {
+        RevisionStore.shutdown();
+    }
+
+    /**
+     * A tag of the repository was pushed: its tag lists and failures are
+     * dropped, the next poll asks the registry.
+     *
+     * @param repository
+     */
+    public static void pushed(final String repository) {
+        tagLists.invalidate(repository);
+        hubPages.invalidate(repository);
+        failures.invalidate(repository);
+    }
+
+    private static boolean swap(final PollTarget target, final TagSnapshot before, final TagSnapshot after) {
+        if (before == null) {
+            return snapshots.putIfAbsent(target.getListKey(), after) == null;
+        }
+        return before == after || snapshots.replace(target.getListKey(), before, after);
+    }
+
+    private static void recordDelta(final PollTarget target, final TagSnapshot before, final TagSnapshot after) {
+        TagDelta delta = TagDelta.between(before == null ? TagSnapshot.EMPTY : before, after);
+        if (!delta.isEmpty()) {
+            deltas.put(target.getListKey(), delta);
+            LOG.debug("Tags of " + target.getName() + " changed: " + delta);
+        }
+    }
+
+    /**
+     * Resolve the digest of the tag with a single HEAD on the manifest. Only
+     * the headers are transferred.
+     *
+     * @param target
+     * On Docker Hub the digest is taken from the most recently updated tags
+     * instead, see {@link #getHubTag}.
+     *
+     * @return DockerTag or null when the registry cannot tell the digest this
+     * way (V1, no digest header, unknown tag, tag pattern).
+     */
+    public DockerTag getDigest(final PollTarget target) {
+        if (target.getApi() == DockerAPI.V1 || target.getMatcher() != null
+                || this.getFailure(target) != null) {
+            return null;
+        }
+        RevisionStore store = RevisionStore.getInstance();
+        if (store != null) {
+            DockerTag warm = getWarm(store, target);
+            if (warm != null) {
+                record(target, warm);
+                return warm;
+            }
+        }
+
+        DockerTag result = target.getApi() == DockerAPI.HUB
+                ? this.getHubTag(target) : this.headTag(target, new long[1]);
+        if (result != null) {
+            record(target, result);
+            if (store != null) {
+                store.put(target, result);
             }
         }
         return result;
     }
 
     /**
-     * Call the Docker API.
+     * HEAD the manifest of the tag of the target.
+     *
+     * @param time Receives the time of the registry when it answered.
+     * @return DockerTag or null when the registry did not tell the digest.
+     */
+    private DockerTag headTag(final PollTarget target, final long[] time) {
+        String manifest = target.getTagUrl();
+        HeadMethod head = new HeadMethod(manifest);
+        head.setRequestHeader("Accept", MANIFEST_TYPES);
+        try {
+            if (this.execute(head, target) != HttpStatus.SC_OK) {
+                return null;
+            }
+            time[0] = serverTime(head);
+            return DockerTag.fromDigestHeader(target.getTag(), head);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot fetch the manifest from " + manifest, e);
+        } finally {
+            this.release(head);
+        }
+    }
+
+    /**
+     * @return The time of the Date header, or the local time.
+     */
+    private static long serverTime(final HttpMethod method) {
+        Header date = method.getResponseHeader("Date");
+        if (date != null) {
+            try {
+                return DateUtil.parseDate(date.getValue()).getTime();
+            } catch (DateParseException e) {
+                LOG.debug("Invalid Date header: " + date.getValue());
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Resolve a tag of Docker Hub from its most recently updated tags. A tag
+     * on the page comes with its digest. A tag which is not on it has not
+     * changed since the oldest update on the page: the digest resolved after
+     * that update is still right. Only otherwise the manifest is requested.
+     *
+     * @param target
+     * @return DockerTag or null when the tag does not exist.
+     */
+    private DockerTag getHubTag(final PollTarget target) {
+        DockerHub.Page page = (DockerHub.Page) hubPages.get(target.getListKey(), new TagListCache.Loader() {
+            @Override
+            public TagList load(final TagList previous) {
+                return loadHubPage(target);
+            }
+        });
+
+        DockerTag tag = page.get(target.getTag());
+        if (tag != null && tag.getHash() != null) {
+            hubTags.remove(target.getKey());
+            record(target, tag);
+            return tag;
+        }
+        if (tag == null && page.isComplete()) {
+            return null;
+        }
+        DockerHub.Resolved known = hubTags.get(target.getKey());
+        if (known != null && page.isUnchangedSince(known.getTime())) {
+            record(target, known.getTag());
+            return known.getTag();
+        }
+
+        long[] time = {System.currentTimeMillis()};
+        tag = this.headTag(target, time);
+        if (tag == null) {
+            tag = this.getManifestTag(target, target.getTag(), target.getTagUrl());
+        }
+        if (tag == null) {
+            hubTags.remove(target.getKey());
+            return null;
+        }
+        hubTags.put(target.getKey(), new DockerHub.Resolved(tag, time[0]));
+        record(target, tag);
+        return tag;
+    }
+
+    /**
+     * Fetch the most recently updated tags from the Hub API. When the Hub
+     * does not answer them, e.g. for a private repository, the page is
+     * unavailable and the tags are resolved from the registry.
+     */
+    private DockerHub.Page loadHubPage(final PollTarget target) {
+        String url = target.getHubUrl();
+        GetMethod get = new GetMethod(url);
+        try {
+            int status = this.execute(get, PollMetrics.forRepository(target), DockerHub.getCredentials());
+            if (status != HttpStatus.SC_OK) {
+                LOG.warn("Unexpected status " + status + " from " + url + ", using the registry");
+                return DockerHub.Page.unavailable();
+            }
+            InputStream body = this.getBody(get);
+            DockerHub.Page page = body == null ? DockerHub.Page.unavailable()
+                    : DockerHub.Page.parse(new InputStreamReader(body, "UTF-8"));
+            LOG.debug("Fetched " + page.size() + " recent tags from " + url);
+            return page;
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Cannot fetch the tags from " + url + ", using the registry: " + e.getMessage());
+            return DockerHub.Page.unavailable();
+        } finally {
+            this.release(get);
+        }
+    }
+
+    /**
+     * Refresh the tag of the target. A V2 tag is refreshed with a HEAD on the
+     * manifest of the fastest mirror, without a hedge. The other targets,
+     * Docker Hub included, and a HEAD which does not tell the digest, are
+     * fetched with {@link #getLatestRevision}.
+     *
+     * @param target
+     * @return The tag, null when the tag does not exist.
+     */
+    public DockerTag refresh(final PollTarget target) {
+        if (this.getFailure(target) != null) {
+            return null;
+        }
+        if (target.getApi() != DockerAPI.V2 || target.getMatcher() != null) {
+            return this.getLatestRevision(target);
+        }
+
+        RegistryMirrors.Endpoint endpoint = target.getMirrors() == null
+                ? null : target.getMirrors().order().get(0);
+        String manifest = endpoint == null ? target.getTagUrl()
+                : endpoint.rewrite(target.getRegistry(), target.getTagUrl());
+        HeadMethod head = new HeadMethod(manifest);
+        head.setRequestHeader("Accept", MANIFEST_TYPES);
+        long start = System.nanoTime();
+        DockerTag tag = null;
+        try {
+            if (this.execute(head, PollMetrics.forRepository(target), target.getCredentials()) == HttpStatus.SC_OK) {
+                tag = DockerTag.fromDigestHeader(target.getTag(), head);
+            }
+            if (endpoint != null) {
+                endpoint.record(System.nanoTime() - start);
+            }
+        } catch (IOException e) {
+            if (endpoint != null) {
+                endpoint.penalize(System.nanoTime() - start);
+            }
+            throw new RuntimeException("Cannot fetch the manifest from " + manifest, e);
+        } finally {
+            this.release(head);
+        }
+        if (tag == null) {
+            // no digest header, or the tag is gone
+            return this.getLatestRevision(target);
+        }
+        record(target, tag);
+        RevisionStore store = RevisionStore.getInstance();
+        if (store != null) {
+            store.put(target, tag);
+        }
+        return tag;
+    }
+
+    /**
+     * Stream the tag list and stop reading as soon as the tag is found. The
+     * next pages are not requested then.
+     *
+     * @return The tag and the number of pages read.
+     */
+    private DockerTag findTag(final PollTarget target, final GetMethod get, final String tagName,
+            final int[] pages) throws IOException {
+        final DockerTag[] result = new DockerTag[1];
+        pages[0] = this.visitPages(target, get, new TagListParser.TagVisitor() {
+            @Override
+            public boolean visit(final String tag, final String hash) {
+                if (tagName.equals(tag)) {
+                    result[0] = new DockerTag(tag, hash);
+                    return false;
+                }
+                return true;
+            }
+        });
+        if (result[0] != null) {
+            LOG.info("Found tag: " + result[0]);
+        }
+        return result[0];
+    }
+
+    /**
+     * Visit the tags of a list page by page. The next page of a V2 list is
+     * named by the Link header, or follows the last tag of a full page. When
+     * the Link header names it, the current page is read and its connection
+     * released, then the next page is requested before the current one is
+     * parsed, so its round trip overlaps the parsing.
+     *
+     * When the visitor stops, the next page is dropped. The rest of a large
+     * list which is not paginated is not drained, the connection is dropped
+     * instead.
+     *
+     * @param target
+     * @param first The first page, answered with 200.
+     * @param visitor
+     * @return The number of pages read.
+     * @throws IOException
+     */
+    private int visitPages(final PollTarget target, final GetMethod first,
+            final TagListParser.TagVisitor visitor) throws IOException {
+        GetMethod page = first;
+        int pages = 0;
+        try {
+            while (page != null) {
+                pages++;
+                GetMethod next = null;
+                Completion<Integer> response = null;
+                InputStream body = this.getBody(page);
+                String link = nextLink(target, page);
+                if (link != null) {
+                    // read the page first, its connection is free for the next one
+                    body = body == null ? null : new ByteArrayInputStream(IOUtils.toByteArray(body));
+                    page.releaseConnection();
+                    next = new GetMethod(link);
+                    response = this.submitLater(next, PollMetrics.forRepository(target), target.getCredentials());
+                }
+
+                PageVisitor counter = new PageVisitor(visitor);
+                if (body != null) {
+                    long start = System.nanoTime();
+                    new TagListParser(target.getApi()).parse(new InputStreamReader(body, "UTF-8"), counter);
+                    this.parsed(page, System.nanoTime() - start);
+                }
+                if (counter.stopped) {
+                    if (next != null) {
+                        this.drop(next, response);
+                        return pages;
+                    }
+                    long length = page.getResponseContentLength();
+                    if (length < 0 || length > DRAIN_LIMIT) {
+                        page.abort();
+                    }
+                    return pages;
+                }
+                this.release(page);
+                if (next == null && PAGE_SIZE > 0 && counter.count >= PAGE_SIZE
+                        && target.getApi() != DockerAPI.V1) {
+                    next = new GetMethod(pageAfter(page, counter.last));
+                    response = this.submitLater(next, PollMetrics.forRepository(target), target.getCredentials());
+                }
+                page = next;
+                if (next != null) {
+                    int status = await(next, response);
+                    if (status == HttpStatus.SC_UNAUTHORIZED || status == 429) {
+                        this.release(next);
+                        status = this.execute(next, target);
+                    }
+                    if (status != HttpStatus.SC_OK) {
+                        throw new IOException("Unexpected status " + status + " from " + next.getURI());
+                    }
+                }
+            }
+            return pages;
+        } finally {
+            if (page != null) {
+                this.release(page);
+            }
+        }
+    }
+
+    /**
+     * Release a page which is no longer needed once its request has ended.
+     * It is not aborted: its connection may already be back in the pool,
+     * and a page is small enough to be drained.
+     */
+    private void drop(final GetMethod page, final Completion<Integer> response) {
+        response.whenDone(new Runnable() {
+            @Override
+            public void run() {
+                release(page);
+            }
+        });
+    }
+
+    /**
+     * @return The URL of the first page of the tag list.
+     */
+    private static String firstPage(final PollTarget target) {
+        if (PAGE_SIZE > 0 && target.getApi() != DockerAPI.V1) {
+            return target.getTagsUrl() + "?n=" + PAGE_SIZE;
+        }
+        return target.getTagsUrl();
+    }
+
+    /**
+     * The next page from the Link header, as in
+     * <code>&lt;/v2/name/tags/list?n=100&amp;last=b&gt;; rel="next"</code>.
+     *
+     * @return The URL of the next page, or null.
+     */
+    private static String nextLink(final PollTarget target, final GetMethod page) throws IOException {
+        if (target.getApi() == DockerAPI.V1) {
+            return null;
+        }
+        Header header = page.getResponseHeader("Link");
+        if (header == null) {
+            return null;
+        }
+        for (String link : header.getValue().split(",")) {
+            int start = link.indexOf('<');
+            int end = link.indexOf('>', start + 1);
+            if (start >= 0 && end > start && link.substring(end).replace(" ", "").contains("rel=\"next\"")) {
+                return new URI(page.getURI(), link.substring(start + 1, end), true).getURI();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The URL of the page after the tag, for registries which do not
+     * send the Link header.
+     */
+    private static String pageAfter(final GetMethod page, final String last) throws IOException {
+        URI uri = page.getURI();
+        return uri.getScheme() + "://" + uri.getAuthority() + uri.getPath()
+                + "?n=" + PAGE_SIZE + "&last=" + URLEncoder.encode(last, "UTF-8");
+    }
+
+    /**
+     * Counts the tags of a page and remembers the last one.
+     */
+    private static class PageVisitor implements TagListParser.TagVisitor {
+
+        final private TagListParser.TagVisitor visitor;
+
+        private int count;
+
+        private String last;
+
+        private boolean stopped;
+
+        PageVisitor(final TagListParser.TagVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public boolean visit(final String tag, final String hash) {
+            this.count++;
+            this.last = tag;
+            this.stopped = !this.visitor.visit(tag, hash);
+            return !this.stopped;
+        }
+    }
+
+    /**
+     * Call the Docker API. When the list has been fetched before, the request
+     * is conditional and an unchanged list is neither transferred nor parsed.
      * 
-     * @param packageConfiguration
-     * @return 
+     * @param target
+     * @return The tag from the list. On V2 the tag has no hash yet.
      */
-    private JsonObject allTags(final PackageConfiguration packageConfiguration) {
-        JsonObject result = null;
-        HttpClient client = super.getHttpClient();
+    private DockerTag allTags(final PollTarget target) {
+        DockerTag result = null;
+        String repository = target.getTagsUrl();
+        String tagName = target.getTag();
 
-        String repository = MessageFormat.format(DockerAPI.V1.getUrl(),
-                repositoryConfiguration.get(Constants.REGISTRY).getValue(),
-                packageConfiguration.get(Constants.REPOSITORY).getValue());
-        
+        String key = repository + "#" + tagName;
+        ValidatorCache.Entry cached = validators.get(key);
+
+        GetMethod get = new GetMethod(firstPage(target));
+        if (cached != null) {
+            cached.addConditions(get);
+        }
         try {
-            GetMethod get = new GetMethod(repository);
-            if (client.executeMethod(get) == HttpStatus.SC_OK) {
-                String jsonString = get.getResponseBodyAsString();
-                LOG.info("RECIEVED: " + jsonString);
-                result = (JsonObject) new JsonParser().parse(jsonString);
+            int status = this.execute(get, target);
+            if (status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                LOG.debug("Not modified: " + repository);
+                result = cached.getTag();
+            } else if (status != HttpStatus.SC_OK) {
+                refused(target.getListKey(), status, "repository " + repository);
+            } else {
+                int[] pages = new int[1];
+                result = this.findTag(target, get, tagName, pages);
+                record(target, result);
+                // the first page only tells about the tags on it
+                if (pages[0] == 1) {
+                    persist(key, validators.put(key, get, result));
+                }
             }
         } catch (IOException e) {
             // Wrap into a runtime. There is nothing useful to do here
             // when this happens.
             throw new RuntimeException("Cannot fetch the tags from " + repository, e);
+        } finally {
+            // hand the connection back to the pool
+            this.release(get);
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the complete tag list of the repository. The list is shared by all
+     * the packages of the repository and fetched only once when it expires.
+     *
+     * @param target
+     * @return TagList
+     */
+    public TagList getTagList(final PollTarget target) {
+        TagList list = tagLists.get(target.getListKey(), new TagListCache.Loader() {
+            @Override
+            public TagList load(final TagList previous) {
+                return loadTags(target, previous);
+            }
+        });
+        record(target, list);
+        return list;
+    }
+
+    /**
+     * Fetch the complete tag list. The request is conditional when the list
+     * has been fetched before. A missing repository has no tags.
+     */
+    private TagList loadTags(final PollTarget target, final TagList previous) {
+        String repository = target.getTagsUrl();
+        GetMethod get = new GetMethod(firstPage(target));
+        if (previous != null) {
+            previous.addConditions(get);
+        }
+        try {
+            int status = this.execute(get, target);
+            if (status == HttpStatus.SC_NOT_MODIFIED && previous != null) {
+                LOG.debug("Not modified: " + repository);
+                return previous.revalidated();
+            }
+            final Map<String, String> tags = new HashMap<>();
+            int pages = 1;
+            if (status == HttpStatus.SC_OK) {
+                pages = this.visitPages(target, get, new TagListParser.TagVisitor() {
+                    @Override
+                    public boolean visit(final String tag, final String hash) {
+                        tags.put(tag, hash);
+                        return true;
+                    }
+                });
+            } else {
+                refused(target.getListKey(), status, "repository " + repository);
+                if (status != HttpStatus.SC_NOT_FOUND) {
+                    throw new IOException("Unexpected status " + status);
+                }
+            }
+            LOG.info("Fetched " + tags.size() + " tags in " + pages + " pages from " + repository);
+            if (pages > 1) {
+                // the validators of the first page do not cover the others
+                return new TagList(tags, null, null, System.currentTimeMillis());
+            }
+            return TagList.of(tags, get);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot fetch the tags from " + repository, e);
+        } finally {
+            this.release(get);
+        }
+    }
+
+    /**
+     * Fetch the manifest of a tag from a V2 registry. The digest is taken
+     * from the Docker-Content-Digest header. Old registries which do not send
+     * the header get the digest of the manifest body.
+     *
+     * @param target
+     * @param tagName
+     * @param manifest The URL of the manifest.
+     * @return DockerTag or null when the tag does not exist.
+     */
+    private DockerTag getManifestTag(final PollTarget target, final String tagName,
+            final String manifest) {
+        DockerTag result = null;
+        ValidatorCache.Entry cached = validators.get(manifest);
+
+        GetMethod get = new GetMethod(manifest);
+        get.setRequestHeader("Accept", MANIFEST_TYPES);
+        if (cached != null) {
+            cached.addConditions(get);
+        }
+        try {
+            int status = this.execute(get, target);
+            if (status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+                result = cached.getTag();
+            } else if (status == HttpStatus.SC_OK) {
+                result = DockerTag.fromDigestHeader(tagName, get);
+                if (result == null) {
+                    InputStream body = this.getBody(get);
+                    if (body == null) {
+                        // no digest header and no manifest, the tag is unknown
+                        LOG.warn("Empty manifest from " + manifest);
+                        return null;
+                    }
+                    result = new DockerTag(tagName, "sha256:" + DigestUtils.sha256Hex(IOUtils.toByteArray(body)));
+                }
+                persist(manifest, validators.put(manifest, get, result));
+                record(target, result);
+                LOG.info("Found tag: " + result);
+            } else {
+                refused(target.getKey(), status, "manifest " + manifest);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot fetch the manifest from " + manifest, e);
+        } finally {
+            this.release(get);
         }
 
         return result;
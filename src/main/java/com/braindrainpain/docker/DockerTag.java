@@ -23,6 +23,10 @@ SOFTWARE.
  */
 package com.braindrainpain.docker;
 
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.lang.StringUtils;
+
 /**
  * Hold the docker metadata.
  *
@@ -30,6 +34,11 @@ package com.braindrainpain.docker;
  */
 public class DockerTag {
 
+    /**
+     * The V2 API returns the content digest of a manifest in this header.
+     */
+    public static final String DIGEST_HEADER = "Docker-Content-Digest";
+
     final private String tag;
 
     final private String hash;
@@ -39,6 +48,21 @@ public class DockerTag {
         this.hash = hash;
     }
 
+    /**
+     * Resolve the tag from the digest header of a manifest response.
+     *
+     * @param tag The requested tag.
+     * @param method The executed manifest request.
+     * @return DockerTag or null when the registry did not send a digest.
+     */
+    public static DockerTag fromDigestHeader(final String tag, final HttpMethod method) {
+        Header header = method.getResponseHeader(DIGEST_HEADER);
+        if (header == null || StringUtils.isBlank(header.getValue())) {
+            return null;
+        }
+        return new DockerTag(tag, header.getValue().trim());
+    }
+
     public String getTag() {
         return this.tag;
     }
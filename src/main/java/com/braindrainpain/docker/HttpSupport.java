@@ -23,34 +23,937 @@ SOFTWARE.
  */
 package com.braindrainpain.docker;
 
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 
 /**
  * Bundles the HTTP calls.
  *
+ * All the calls share one pooled connection manager. The pool keeps the
+ * connections per registry host alive, so the polls do not pay a new TCP and
+ * TLS handshake each time. The pool is started when the plugin is loaded and
+ * shut down when it is unloaded.
+ *
+ * Every request takes a token of the {@link RateLimiter} of its registry and
+ * passes its circuit breaker. A throttled registry gets the requests at a
+ * lower rate, a failing registry is not called until the breaker lets a
+ * probe through.
+ *
+ * The requests are measured for the {@link PollMetrics} of their registry
+ * and repository: connect and first byte time, total time, parse time,
+ * response bytes and errors.
+ *
+ * The requests are sent by the {@link HttpTransport}, the pooled
+ * commons-httpclient. A request can be executed on a background thread and
+ * awaited later, e.g. the next page of a tag list while the current one is
+ * parsed.
+ *
+ * The responses are requested compressed and decompressed while they are
+ * read. A body larger than the maximum response size is not read to the
+ * end, the request is aborted and its connection closed.
+ *
  * @author Jan De Cooman
  */
 public class HttpSupport {
-    
-    protected HttpClient getHttpClient() {
-        HttpClient client = new HttpClient();
-        
-        client.getParams().setIntParameter(
-                HttpConnectionParams.CONNECTION_TIMEOUT, 
-                this.getSystemProperty("docker.repo.connection.timeout", 10 * 1000));
-        
-        client.getParams().setSoTimeout(
-                this.getSystemProperty("docker.repo.socket.timeout", 5 * 60 * 1000));
-        
-        return client;
-    }
-
-    private int getSystemProperty(final String key, final int defaultValue) {
+
+    final private static Logger LOG = Logger.getLoggerFor(HttpSupport.class);
+
+    private static MultiThreadedHttpConnectionManager connectionManager;
+
+    private static IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+
+    private static volatile HttpTransport transport;
+
+    private static ScheduledThreadPoolExecutor hedgeTimer;
+
+    private static ThreadPoolExecutor background;
+
+    final private static String TIMING = "docker.repo.timing";
+
+    final private static boolean COMPRESSION
+            = Boolean.parseBoolean(System.getProperty("docker.repo.compression", "true"));
+
+    final private static long MAX_RESPONSE_SIZE
+            = getSystemProperty("docker.repo.max.response.size", 64 * 1024 * 1024);
+
+    final private static long HEDGE_DELAY = getSystemProperty("docker.repo.mirrors.hedge.delay", 500);
+
+    /**
+     * The requests executed in the background, the next pages and the
+     * hedges, wait for their response on these threads.
+     */
+    final private static int BACKGROUND_THREADS
+            = Math.max(1, getSystemProperty("docker.repo.background.threads", 16));
+
+    final private static int BACKGROUND_QUEUE
+            = Math.max(1, getSystemProperty("docker.repo.background.queue", 64));
+
+    /**
+     * Create the shared connection pool.
+     */
+    public static synchronized void startup() {
+        if (transport != null) {
+            return;
+        }
+
+        HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        params.setConnectionTimeout(
+                getSystemProperty("docker.repo.connection.timeout", 10 * 1000));
+        params.setSoTimeout(
+                getSystemProperty("docker.repo.socket.timeout", 5 * 60 * 1000));
+        params.setDefaultMaxConnectionsPerHost(
+                getSystemProperty("docker.repo.max.connections.per.host", 20));
+        params.setMaxTotalConnections(
+                getSystemProperty("docker.repo.max.connections", 200));
+        params.setStaleCheckingEnabled(true);
+
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        connectionManager.setParams(params);
+
+        // close the connections which have not been used for a while
+        int idleTimeout = getSystemProperty("docker.repo.connection.idle.timeout", 60 * 1000);
+        idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+        idleConnectionTimeoutThread.setName("docker-idle-connection-evictor");
+        idleConnectionTimeoutThread.setConnectionTimeout(idleTimeout);
+        idleConnectionTimeoutThread.setTimeoutInterval(Math.max(1000, idleTimeout / 2));
+        idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+        idleConnectionTimeoutThread.start();
+
+        TimedSocketFactory.install();
+        transport = new BlockingTransport(new HttpClient(connectionManager));
+        ThreadFactory threads = new ThreadFactory() {
+            final private AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "docker-http-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        hedgeTimer = new ScheduledThreadPoolExecutor(1, threads);
+        hedgeTimer.setRemoveOnCancelPolicy(true);
+        background = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(BACKGROUND_QUEUE), threads, new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(final Runnable runnable, final ThreadPoolExecutor executor) {
+                        ((Task) runnable).rejected(new IOException(executor.isShutdown()
+                                ? "The transport is shut down"
+                                : "Too many requests in the background, the request was not sent"));
+                    }
+                });
+        background.allowCoreThreadTimeOut(true);
+        LOG.info("HTTP connection pool started with " + transport.getClass().getSimpleName());
+    }
+
+    /**
+     * Close all the pooled connections.
+     */
+    public static synchronized void shutdown() {
+        if (transport == null) {
+            return;
+        }
+        transport.shutdown();
+        hedgeTimer.shutdownNow();
+        for (Runnable queued : background.shutdownNow()) {
+            ((Task) queued).rejected(new IOException("The transport is shut down"));
+        }
+        idleConnectionTimeoutThread.shutdown();
+        connectionManager.shutdown();
+        TimedSocketFactory.uninstall();
+        idleConnectionTimeoutThread = null;
+        connectionManager = null;
+        transport = null;
+        LOG.info("HTTP connection pool stopped");
+    }
+
+    /**
+     * Execute the request through the circuit breaker of the registry.
+     * Connection errors and 5xx responses count as failures.
+     *
+     * @param method
+     * @return The status code.
+     * @throws IOException also when the breaker is open.
+     */
+    protected int execute(final HttpMethod method) throws IOException {
+        return this.execute(method, null);
+    }
+
+    /**
+     * Execute the request and record its metrics for the registry and the
+     * repository. The request must be finished with {@link #release}.
+     *
+     * @param method
+     * @param repository The metrics of the repository, or null.
+     * @return The status code.
+     * @throws IOException also when the breaker is open.
+     */
+    protected int execute(final HttpMethod method, final PollMetrics repository) throws IOException {
+        String registry = getRegistryKey(method);
+        PollMetrics registryMetrics = PollMetrics.forRegistry(registry);
+        // an open breaker must not spend a token of the rate limit
+        CircuitBreaker breaker = CircuitBreaker.getInstance(registry);
+        CircuitBreaker.Permit permit = breaker.allowRequest();
+        if (permit == CircuitBreaker.Permit.DENIED) {
+            error(registryMetrics, repository, "circuit-open");
+            throw new IOException("Registry '" + breaker.getRegistry()
+                    + "' is not available, the circuit breaker is open");
+        }
+        boolean probe = permit == CircuitBreaker.Permit.PROBE;
+        RateLimiter limiter = RateLimiter.getInstance(registry);
+        boolean acquired = false;
+        try {
+            acquired = acquire(limiter, method, repository);
+        } finally {
+            if (!acquired && probe) {
+                breaker.recordAborted();
+            }
+        }
+        if (!acquired) {
+            error(registryMetrics, repository, "rate-limited");
+            throw new IOException("Registry '" + limiter.getRegistry()
+                    + "' is rate limited, the request was not sent");
+        }
+
+        Timing timing = new Timing(registryMetrics, repository);
+        method.getParams().setParameter(TIMING, timing);
+        if (COMPRESSION) {
+            method.setRequestHeader("Accept-Encoding", "gzip, deflate");
+        }
+
+        int status;
+        try {
+            status = getTransport().execute(method, timing);
+        } catch (IOException e) {
+            // a request which lost a hedge or is no longer needed says
+            // nothing about the registry
+            if (!isAborted(method)) {
+                error(registryMetrics, repository, "io");
+                breaker.recordFailure();
+            } else if (probe) {
+                breaker.recordAborted();
+            }
+            throw e;
+        }
+        limiter.update(method, status, isManifest(method));
+        if (status >= 400) {
+            error(registryMetrics, repository, String.valueOf(status));
+        } else if (repository != null) {
+            repository.responded();
+        }
+        if (status < 500) {
+            breaker.recordSuccess();
+        } else {
+            breaker.recordFailure();
+        }
+        return status;
+    }
+
+    /**
+     * Wait for a token of the rate limiter of the registry.
+     *
+     * @return false when the registry is throttled for too long.
+     */
+    private static boolean acquire(final RateLimiter limiter, final HttpMethod method,
+            final PollMetrics repository) throws IOException {
+        try {
+            return limiter.acquire(repository == null ? 0 : repository.getStaleness(),
+                    method instanceof GetMethod && isManifest(method));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send " + method.getURI());
+        }
+    }
+
+    private static boolean awaitRetry(final RateLimiter limiter, final HttpMethod method)
+            throws IOException {
+        try {
+            return limiter.awaitRetry(method);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to send " + method.getURI());
+        }
+    }
+
+    /**
+     * Execute the request on a background thread, so the calling thread can
+     * go on in the meantime. The Authorization header is added for the
+     * challenge the registry answered before, a 401 is not answered here.
+     *
+     * @param method
+     * @param repository The metrics of the repository, or null.
+     * @param credentials
+     * @return The status code, once it is there.
+     */
+    protected Completion<Integer> submitLater(final HttpMethod method, final PollMetrics repository,
+            final Credentials credentials) {
+        getTransport();
+        final Completion<Integer> result = new Completion<>();
+        background.execute(new Task() {
+            @Override
+            public void run() {
+                try {
+                    credentials.authorize(method);
+                    result.complete(execute(method, repository));
+                } catch (IOException | RuntimeException e) {
+                    result.fail(e);
+                }
+            }
+
+            @Override
+            void rejected(final IOException e) {
+                result.fail(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return true for a request of a manifest, the pulls a registry counts
+     * against its announced quota.
+     */
+    private static boolean isManifest(final HttpMethod method) {
+        return method.getPath() != null && method.getPath().contains("/manifests/");
+    }
+
+    private static boolean isAborted(final HttpMethod method) {
+        return method instanceof HttpMethodBase && ((HttpMethodBase) method).isAborted();
+    }
+
+    /**
+     * Wait for a submitted request.
+     *
+     * @param method
+     * @param response
+     * @return The status code.
+     * @throws IOException when the request failed.
+     */
+    protected static int await(final HttpMethod method, final Completion<Integer> response)
+            throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            method.abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + method.getURI());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Execute the request with the credentials. The Authorization header is
+     * added for the challenge the registry answered before. A 401 with a new
+     * challenge, or a rejected token, is answered once. A 429 is sent again
+     * once after its Retry-After, when that is within the maximum wait of the
+     * rate limiter.
+     *
+     * @param method
+     * @param repository The metrics of the repository, or null.
+     * @param credentials
+     * @return The status code.
+     * @throws IOException also when the breaker is open or no token can be
+     * fetched.
+     */
+    protected int execute(final HttpMethod method, final PollMetrics repository,
+            final Credentials credentials) throws IOException {
+        return this.execute(method, repository, credentials, null);
+    }
+
+    /**
+     * Execute the request with the credentials on the fastest mirror, see
+     * {@link #executeMirrored}.
+     *
+     * @param method A request to the primary registry.
+     * @param repository The metrics of the repository, or null.
+     * @param credentials
+     * @param mirrors The mirrors of the registry, or null.
+     * @return The status code.
+     * @throws IOException also when the breaker is open or no token can be
+     * fetched.
+     */
+    protected int execute(final HttpMethod method, final PollMetrics repository,
+            final Credentials credentials, final RegistryMirrors mirrors) throws IOException {
+        int status = this.send(method, repository, credentials, mirrors);
+        if (status == HttpStatus.SC_UNAUTHORIZED && credentials.learn(method,
+                Challenge.parse(method.getResponseHeader("WWW-Authenticate")))) {
+            this.release(method);
+            status = this.send(method, repository, credentials, mirrors);
+        }
+        if (status == 429 && awaitRetry(RateLimiter.getInstance(getRegistryKey(method)), method)) {
+            this.release(method);
+            status = this.send(method, repository, credentials, mirrors);
+        }
+        return status;
+    }
+
+    private int send(final HttpMethod method, final PollMetrics repository,
+            final Credentials credentials, final RegistryMirrors mirrors) throws IOException {
+        if (mirrors == null || !(method instanceof GetMethod || method instanceof HeadMethod)) {
+            credentials.authorize(method);
+            return this.execute(method, repository);
+        }
+        return this.executeMirrored(method, repository, credentials, mirrors);
+    }
+
+    /**
+     * Send the request to the fastest healthy mirror. When it has not
+     * answered after the hedge delay, the same request goes to the next
+     * mirror too, and the first response wins. A mirror which fails or
+     * answers with a 5xx or 429 is replaced by the next one right away.
+     *
+     * The requests run on copies of the method. The winning response is
+     * read and handed to the method, whose URI then points to the mirror.
+     */
+    private int executeMirrored(final HttpMethod method, final PollMetrics repository,
+            final Credentials credentials, final RegistryMirrors mirrors) throws IOException {
+        getTransport();
+        final Hedge hedge = new Hedge(method, repository, credentials, mirrors);
+        ScheduledFuture<?> timer = null;
+        if (HEDGE_DELAY > 0) {
+            timer = hedgeTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    hedge.startNextLater(null);
+                }
+            }, HEDGE_DELAY, TimeUnit.MILLISECONDS);
+        }
+        hedge.startNext();
+
+        Attempt won;
+        try {
+            won = hedge.winner.get();
+        } catch (InterruptedException e) {
+            hedge.abort(null);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + method.getURI());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+        if (won.error != null) {
+            throw won.error;
+        }
+        return won.replay(method);
+    }
+
+    /**
+     * The decompressed body of the response. The bytes received are counted
+     * in the metrics. Reading more than the maximum response size aborts the
+     * request.
+     *
+     * @param method The executed request.
+     * @return The stream or null when there is no body.
+     * @throws IOException also when the response is too large.
+     */
+    protected InputStream getBody(final HttpMethod method) throws IOException {
+        Header length = method.getResponseHeader("Content-Length");
+        if (length != null && isLarger(length.getValue(), MAX_RESPONSE_SIZE)) {
+            throw this.tooLarge(method);
+        }
+        InputStream body = method.getResponseBodyAsStream();
+        if (body == null) {
+            return null;
+        }
+        Timing timing = (Timing) method.getParams().getParameter(TIMING);
+        if (timing != null) {
+            timing.body = new CountingInputStream(body);
+            body = timing.body;
+        }
+        Header encoding = method.getResponseHeader("Content-Encoding");
+        String coding = encoding == null ? "identity" : encoding.getValue().trim().toLowerCase();
+        switch (coding) {
+            case "identity":
+                break;
+            case "gzip":
+            case "x-gzip":
+                body = new GZIPInputStream(body);
+                break;
+            case "deflate":
+                body = new InflaterInputStream(body);
+                break;
+            default:
+                throw new IOException("Unsupported Content-Encoding '" + coding + "' from "
+                        + method.getURI());
+        }
+        return new LimitedInputStream(body, method);
+    }
+
+    private static boolean isLarger(final String length, final long limit) {
+        try {
+            return Long.parseLong(length.trim()) > limit;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Abort the request and record the error. Releasing an aborted request
+     * does not drain the rest of the body.
+     */
+    private IOException tooLarge(final HttpMethod method) throws IOException {
+        method.abort();
+        Timing timing = (Timing) method.getParams().getParameter(TIMING);
+        if (timing != null) {
+            error(timing.registry, timing.repository, "too-large");
+        }
+        return new IOException("The response from " + method.getURI()
+                + " is larger than " + MAX_RESPONSE_SIZE + " bytes");
+    }
+
+    /**
+     * Record the time spent to parse the response.
+     *
+     * @param method The executed request.
+     * @param nanos
+     */
+    protected void parsed(final HttpMethod method, final long nanos) {
+        Timing timing = (Timing) method.getParams().getParameter(TIMING);
+        if (timing != null) {
+            timing.registry.parsed(nanos);
+            if (timing.repository != null) {
+                timing.repository.parsed(nanos);
+            }
+        }
+    }
+
+    /**
+     * Finish the request, record its total time and hand the connection
+     * back to the pool.
+     *
+     * @param method
+     */
+    protected void release(final HttpMethod method) {
+        Timing timing = (Timing) method.getParams().getParameter(TIMING);
+        if (timing != null) {
+            method.getParams().setParameter(TIMING, null);
+            timing.finish();
+        }
+        method.releaseConnection();
+    }
+
+    private static void error(final PollMetrics registry, final PollMetrics repository,
+            final String error) {
+        registry.error(error);
+        if (repository != null) {
+            repository.error(error);
+        }
+    }
+
+    private static String getRegistryKey(final HttpMethod method) throws IOException {
+        return getRegistryKey(method.getURI());
+    }
+
+    private static String getRegistryKey(final URI uri) throws URIException {
+        return uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+    }
+
+    /**
+     * @param url
+     * @return scheme://host:port of the URL.
+     */
+    protected static String getRegistryKey(final String url) {
+        try {
+            return getRegistryKey(new URI(url, true));
+        } catch (URIException e) {
+            throw new RuntimeException("Invalid URL: " + url, e);
+        }
+    }
+
+    /**
+     * The transport is thread-safe and shared by all the calls. It is
+     * started on first use when the plugin has not been loaded yet.
+     *
+     * @return HttpTransport
+     */
+    private static HttpTransport getTransport() {
+        HttpTransport current = transport;
+        if (current == null) {
+            startup();
+            current = transport;
+        }
+        return current;
+    }
+
+    protected static int getSystemProperty(final String key, final int defaultValue) {
         try {
             return Integer.parseInt(System.getProperty(key));
         } catch (NumberFormatException e) {
             return defaultValue;
         }
     }
+
+    /**
+     * A task of the background threads. A task which cannot be queued is
+     * rejected, the request it would have sent fails.
+     */
+    private abstract static class Task implements Runnable {
+
+        abstract void rejected(IOException e);
+    }
+
+    /**
+     * The requests of one call to the mirrors.
+     */
+    private class Hedge {
+
+        final private HttpMethod method;
+
+        final private PollMetrics repository;
+
+        final private Credentials credentials;
+
+        final private String primary;
+
+        final private List<RegistryMirrors.Endpoint> endpoints;
+
+        final private Completion<Attempt> winner = new Completion<>();
+
+        final private List<Attempt> attempts = new ArrayList<>();
+
+        private int next;
+
+        private int running;
+
+        Hedge(final HttpMethod method, final PollMetrics repository, final Credentials credentials,
+                final RegistryMirrors mirrors) {
+            this.method = method;
+            this.repository = repository;
+            this.credentials = credentials;
+            this.primary = mirrors.getPrimary();
+            this.endpoints = mirrors.order();
+        }
+
+        /**
+         * Send the request to the next mirror and wait for the response.
+         */
+        void startNext() {
+            Attempt attempt;
+            synchronized (this) {
+                if (this.winner.isDone() || this.next >= this.endpoints.size()) {
+                    return;
+                }
+                try {
+                    attempt = new Attempt(this, this.endpoints.get(this.next++));
+                } catch (IOException e) {
+                    this.winner.fail(e);
+                    return;
+                }
+                this.attempts.add(attempt);
+                this.running++;
+            }
+            if (attempt.endpoint != this.endpoints.get(0)) {
+                LOG.debug("Hedging " + this.method.getName() + " " + attempt.copy.getPath()
+                        + " on " + attempt.endpoint);
+            }
+            attempt.start();
+        }
+
+        void finished(final Attempt attempt) {
+            boolean usable = attempt.isUsable();
+            boolean more;
+            boolean last;
+            synchronized (this) {
+                this.running--;
+                more = this.next < this.endpoints.size();
+                last = !more && this.running == 0;
+            }
+            if (usable || last) {
+                if (this.winner.complete(attempt)) {
+                    this.abort(attempt);
+                }
+            } else if (more) {
+                this.startNextLater(attempt);
+            }
+        }
+
+        /**
+         * Start the next request on its own thread, so it does not hold the
+         * timer.
+         *
+         * @param failed The request which failed, it wins when the next one
+         * cannot be started. Null for the hedge of a request which still
+         * runs.
+         */
+        void startNextLater(final Attempt failed) {
+            if (this.winner.isDone()) {
+                return;
+            }
+            background.execute(new Task() {
+                @Override
+                public void run() {
+                    startNext();
+                }
+
+                @Override
+                void rejected(final IOException e) {
+                    if (failed != null) {
+                        winner.complete(failed);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Abort the requests which lost.
+         */
+        void abort(final Attempt won) {
+            List<Attempt> losers;
+            synchronized (this) {
+                losers = new ArrayList<>(this.attempts);
+            }
+            for (Attempt attempt : losers) {
+                if (attempt != won) {
+                    attempt.copy.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * The request of a hedge on one mirror.
+     */
+    private class Attempt {
+
+        final private Hedge hedge;
+
+        final private RegistryMirrors.Endpoint endpoint;
+
+        final private HttpMethod copy;
+
+        final private long start = System.nanoTime();
+
+        private int status;
+
+        private byte[] body;
+
+        private IOException error;
+
+        Attempt(final Hedge hedge, final RegistryMirrors.Endpoint endpoint) throws IOException {
+            this.hedge = hedge;
+            this.endpoint = endpoint;
+            String url = endpoint.rewrite(hedge.primary, hedge.method.getURI().getURI());
+            this.copy = hedge.method instanceof HeadMethod ? new HeadMethod(url) : new GetMethod(url);
+            this.copy.setFollowRedirects(hedge.method.getFollowRedirects());
+            for (Header header : hedge.method.getRequestHeaders()) {
+                if (!header.getName().equalsIgnoreCase("Authorization")) {
+                    this.copy.setRequestHeader(header.getName(), header.getValue());
+                }
+            }
+        }
+
+        boolean isUsable() {
+            return this.error == null && this.status < 500 && this.status != 429;
+        }
+
+        void start() {
+            try {
+                this.hedge.credentials.authorize(this.copy);
+                this.status = execute(this.copy, this.hedge.repository);
+                if (this.isUsable()) {
+                    this.body = readBody(this.copy);
+                    this.endpoint.record(System.nanoTime() - this.start);
+                } else {
+                    this.endpoint.penalize(System.nanoTime() - this.start);
+                }
+            } catch (IOException e) {
+                this.error = e;
+                if (!this.hedge.winner.isDone()) {
+                    this.endpoint.penalize(System.nanoTime() - this.start);
+                }
+            } finally {
+                release(this.copy);
+            }
+            this.hedge.finished(this);
+        }
+
+        /**
+         * Hand the response to the method, with the body as it was received.
+         */
+        int replay(final HttpMethod method) throws IOException {
+            StringBuilder head = new StringBuilder(512);
+            head.append("HTTP/1.1 ").append(this.status).append(' ')
+                    .append(this.copy.getStatusText()).append("\r\n");
+            for (Header header : this.copy.getResponseHeaders()) {
+                String name = header.getName();
+                if (name.equalsIgnoreCase("Transfer-Encoding") || name.equalsIgnoreCase("Connection")
+                        || (this.body != null && name.equalsIgnoreCase("Content-Length"))) {
+                    continue;
+                }
+                head.append(header.toExternalForm());
+            }
+            if (this.body != null) {
+                head.append("Content-Length: ").append(this.body.length).append("\r\n");
+            }
+            head.append("\r\n");
+            ByteArrayOutputStream response = new ByteArrayOutputStream(
+                    head.length() + (this.body == null ? 0 : this.body.length));
+            response.write(head.toString().getBytes("ISO-8859-1"));
+            if (this.body != null) {
+                response.write(this.body);
+            }
+            method.setURI(this.copy.getURI());
+            return method.execute(new HttpState(),
+                    new ReplayConnection(method, new ByteArrayInputStream(response.toByteArray())));
+        }
+    }
+
+    /**
+     * Read the body as it was received, up to the maximum response size.
+     */
+    private byte[] readBody(final HttpMethod method) throws IOException {
+        InputStream body = method.getResponseBodyAsStream();
+        if (body == null) {
+            return null;
+        }
+        Timing timing = (Timing) method.getParams().getParameter(TIMING);
+        if (timing != null) {
+            timing.body = new CountingInputStream(body);
+            body = timing.body;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = body.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+            if (bytes.size() > MAX_RESPONSE_SIZE) {
+                throw this.tooLarge(method);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Fails the request as soon as more than the maximum response size has
+     * been read.
+     */
+    private class LimitedInputStream extends FilterInputStream {
+
+        final private HttpMethod method;
+
+        private long remaining = MAX_RESPONSE_SIZE;
+
+        LimitedInputStream(final InputStream in, final HttpMethod method) {
+            super(in);
+            this.method = method;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                this.count(1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                this.count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(final long length) throws IOException {
+            long skipped = super.skip(length);
+            this.count(skipped);
+            return skipped;
+        }
+
+        private void count(final long read) throws IOException {
+            this.remaining -= read;
+            if (this.remaining < 0) {
+                throw tooLarge(this.method);
+            }
+        }
+    }
+
+    /**
+     * The metrics of one request, kept in the parameters of the method.
+     */
+    private static class Timing implements HttpTransport.Timer {
+
+        final private PollMetrics registry;
+
+        final private PollMetrics repository;
+
+        final private long start = System.nanoTime();
+
+        private CountingInputStream body;
+
+        Timing(final PollMetrics registry, final PollMetrics repository) {
+            this.registry = registry;
+            this.repository = repository;
+            registry.requestStarted();
+            if (repository != null) {
+                repository.requestStarted();
+            }
+        }
+
+        @Override
+        public void headers(final long firstByte, final long connect) {
+            this.registry.firstByte(firstByte);
+            if (connect > 0) {
+                this.registry.connected(connect);
+            }
+            if (this.repository != null) {
+                this.repository.firstByte(firstByte);
+                if (connect > 0) {
+                    this.repository.connected(connect);
+                }
+            }
+        }
+
+        void finish() {
+            long total = System.nanoTime() - this.start;
+            long bytes = this.body == null ? 0 : this.body.getByteCount();
+            this.registry.requestFinished(total);
+            this.registry.received(bytes);
+            if (this.repository != null) {
+                this.repository.requestFinished(total);
+                this.repository.received(bytes);
+            }
+        }
+    }
 }
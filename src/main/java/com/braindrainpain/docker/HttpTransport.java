@@ -0,0 +1,69 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.io.IOException;
+import org.apache.commons.httpclient.HttpMethod;
+
+/**
+ * Sends the requests of {@link HttpSupport}.
+ *
+ * The {@link BlockingTransport} runs the request on the calling thread with
+ * the pooled commons-httpclient.
+ *
+ * @author Jan De Cooman
+ */
+public interface HttpTransport {
+
+    /**
+     * Told the timing of a request.
+     */
+    interface Timer {
+
+        /**
+         * The status line and headers of the method have been read.
+         *
+         * @param firstByte Nanoseconds until the first byte of the response.
+         * @param connect Nanoseconds to open the connection, 0 when a pooled
+         * connection was used.
+         */
+        void headers(long firstByte, long connect);
+    }
+
+    /**
+     * Send the request and read the status line and the headers. The body
+     * can then be read from the method.
+     *
+     * @param method
+     * @param timer
+     * @return The status code.
+     * @throws IOException
+     */
+    int execute(HttpMethod method, Timer timer) throws IOException;
+
+    /**
+     * Close the connections.
+     */
+    void shutdown();
+}
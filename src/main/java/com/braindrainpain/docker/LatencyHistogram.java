@@ -0,0 +1,187 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with fixed buckets.
+ *
+ * Recording a value only increments atomic counters, so the histogram can be
+ * shared by all the polling threads without contention on a lock. The
+ * percentiles are estimated by the upper bound of their bucket.
+ *
+ * @author Jan De Cooman
+ */
+public class LatencyHistogram {
+
+    /**
+     * The upper bounds of the buckets in milliseconds. The last bucket holds
+     * everything above.
+     */
+    final private static long[] BOUNDS = {
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000
+    };
+
+    final private AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+    final private AtomicLong count = new AtomicLong();
+
+    final private AtomicLong total = new AtomicLong();
+
+    final private AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos The measured time in nanoseconds.
+     */
+    public void record(final long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+            bucket++;
+        }
+        this.buckets.incrementAndGet(bucket);
+        this.count.incrementAndGet();
+        this.total.addAndGet(nanos);
+
+        long current = this.max.get();
+        while (nanos > current && !this.max.compareAndSet(current, nanos)) {
+            current = this.max.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[this.buckets.length()];
+        long sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.buckets.get(i);
+            sum += counts[i];
+        }
+        double mean = sum == 0 ? 0 : this.total.get() / 1e6 / this.count.get();
+        return new Snapshot(sum, mean, this.max.get() / 1e6,
+                percentile(counts, sum, 0.50), percentile(counts, sum, 0.90),
+                percentile(counts, sum, 0.99), BOUNDS.clone(), counts);
+    }
+
+    private static long percentile(final long[] counts, final long sum, final double percentile) {
+        long rank = (long) Math.ceil(sum * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return i < BOUNDS.length ? BOUNDS[i] : Long.MAX_VALUE;
+            }
+        }
+        return 0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < this.buckets.length(); i++) {
+            this.buckets.set(i, 0);
+        }
+        this.count.set(0);
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    /**
+     * The state of the histogram at one moment, in milliseconds. Exposed as
+     * composite data through JMX.
+     */
+    public static class Snapshot {
+
+        final private long count;
+
+        final private double mean;
+
+        final private double max;
+
+        final private long p50;
+
+        final private long p90;
+
+        final private long p99;
+
+        final private long[] bounds;
+
+        final private long[] buckets;
+
+        @ConstructorProperties({"count", "mean", "max", "p50", "p90", "p99", "bounds", "buckets"})
+        public Snapshot(final long count, final double mean, final double max, final long p50,
+                final long p90, final long p99, final long[] bounds, final long[] buckets) {
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.bounds = bounds;
+            this.buckets = buckets;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public double getMean() {
+            return this.mean;
+        }
+
+        public double getMax() {
+            return this.max;
+        }
+
+        public long getP50() {
+            return this.p50;
+        }
+
+        public long getP90() {
+            return this.p90;
+        }
+
+        public long getP99() {
+            return this.p99;
+        }
+
+        /**
+         * @return The upper bounds of the buckets. The last bucket has none.
+         */
+        public long[] getBounds() {
+            return this.bounds;
+        }
+
+        public long[] getBuckets() {
+            return this.buckets;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + this.count + " mean=" + this.mean + "ms p50=" + this.p50
+                    + "ms p99=" + this.p99 + "ms max=" + this.max + "ms";
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers why a repository or a tag could not be polled: it does not
+ * exist, or the registry refused the credentials. The next polls get the
+ * same answer without a request until the entry expires, so a material which
+ * is misconfigured does not cost registry quota on every poll.
+ *
+ * The entries expire after their own TTL, so a repository which is created
+ * or a tag which is pushed later is picked up. The cache is bounded, the
+ * least recently used entries are evicted first.
+ *
+ * @author Jan De Cooman
+ */
+public class NegativeCache {
+
+    final private long ttl;
+
+    final private Map<String, Entry> entries;
+
+    /**
+     * @param ttl Time in milliseconds a failure is remembered. 0 disables
+     * the cache.
+     * @param maxSize
+     */
+    public NegativeCache(final long ttl, final int maxSize) {
+        this.ttl = ttl;
+        this.entries = new LinkedHashMap<String, NegativeCache.Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, NegativeCache.Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param key
+     * @return The reason of the failure, or null when there is none or it
+     * expired.
+     */
+    public synchronized String get(final String key) {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry.expires) {
+            this.entries.remove(key);
+            return null;
+        }
+        return entry.reason;
+    }
+
+    public synchronized void put(final String key, final String reason) {
+        if (this.ttl > 0) {
+            this.entries.put(key, new Entry(reason, System.currentTimeMillis() + this.ttl));
+        }
+    }
+
+    public synchronized void remove(final String key) {
+        this.entries.remove(key);
+    }
+
+    /**
+     * Drop the failures of a repository and its tags on every registry.
+     *
+     * @param repository
+     */
+    public synchronized void invalidate(final String repository) {
+        Iterator<String> keys = this.entries.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.endsWith("|" + repository) || key.contains("|" + repository + "|")) {
+                keys.remove();
+            }
+        }
+    }
+
+    private static class Entry {
+
+        final private String reason;
+
+        final private long expires;
+
+        Entry(final String reason, final long expires) {
+            this.reason = reason;
+            this.expires = expires;
+        }
+    }
+}
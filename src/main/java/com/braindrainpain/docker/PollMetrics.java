@@ -0,0 +1,337 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Polling metrics of a registry or a repository.
+ *
+ * The metrics are kept per registry and per repository and registered as
+ * MXBeans under 'com.braindrainpain.docker' while the plugin is loaded. All
+ * the counters are atomic, recording on the poll path takes no lock.
+ *
+ * @author Jan De Cooman
+ */
+public class PollMetrics implements PollMetricsMXBean {
+
+    final private static Logger LOG = Logger.getLoggerFor(PollMetrics.class);
+
+    final private static String DOMAIN = "com.braindrainpain.docker";
+
+    final private static ConcurrentMap<String, PollMetrics> registries = new ConcurrentHashMap<>();
+
+    final private static ConcurrentMap<String, PollMetrics> repositories = new ConcurrentHashMap<>();
+
+    private static MBeanServer server;
+
+    final private String type;
+
+    final private String name;
+
+    final private AtomicLong polls = new AtomicLong();
+
+    final private AtomicLong requests = new AtomicLong();
+
+    final private AtomicLong inFlight = new AtomicLong();
+
+    final private AtomicLong responseBytes = new AtomicLong();
+
+    final private LatencyHistogram connectTime = new LatencyHistogram();
+
+    final private LatencyHistogram firstByteTime = new LatencyHistogram();
+
+    final private LatencyHistogram totalTime = new LatencyHistogram();
+
+    final private LatencyHistogram parseTime = new LatencyHistogram();
+
+    final private ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    private volatile long lastResponse;
+
+    private PollMetrics(final String type, final String name) {
+        this.type = type;
+        this.name = name;
+    }
+
+    /**
+     * @param registry scheme://host:port
+     * @return The metrics of the registry.
+     */
+    public static PollMetrics forRegistry(final String registry) {
+        return get(registries, "Registry", registry);
+    }
+
+    /**
+     * @param target
+     * @return The metrics of the repository of the target.
+     */
+    public static PollMetrics forRepository(final PollTarget target) {
+        return get(repositories, "Repository", target.getName());
+    }
+
+    private static PollMetrics get(final ConcurrentMap<String, PollMetrics> metrics,
+            final String type, final String name) {
+        PollMetrics result = metrics.get(name);
+        if (result == null) {
+            PollMetrics created = new PollMetrics(type, name);
+            result = metrics.putIfAbsent(name, created);
+            if (result == null) {
+                result = created;
+                register(created);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Register the metrics in the platform MBean server.
+     */
+    public static synchronized void startup() {
+        if (server != null) {
+            return;
+        }
+        server = ManagementFactory.getPlatformMBeanServer();
+        for (PollMetrics metrics : registries.values()) {
+            register(metrics);
+        }
+        for (PollMetrics metrics : repositories.values()) {
+            register(metrics);
+        }
+        LOG.info("Polling metrics registered");
+    }
+
+    /**
+     * Remove the metrics from the MBean server.
+     */
+    public static synchronized void shutdown() {
+        if (server == null) {
+            return;
+        }
+        for (PollMetrics metrics : registries.values()) {
+            unregister(metrics);
+        }
+        for (PollMetrics metrics : repositories.values()) {
+            unregister(metrics);
+        }
+        server = null;
+        LOG.info("Polling metrics unregistered");
+    }
+
+    private static synchronized void register(final PollMetrics metrics) {
+        if (server == null) {
+            return;
+        }
+        try {
+            ObjectName objectName = metrics.getObjectName();
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metrics, objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Cannot register the metrics of " + metrics.name + ": " + e.getMessage());
+        }
+    }
+
+    private static void unregister(final PollMetrics metrics) {
+        try {
+            ObjectName objectName = metrics.getObjectName();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Cannot unregister the metrics of " + metrics.name + ": " + e.getMessage());
+        }
+    }
+
+    private ObjectName getObjectName() throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + this.type + ",name=" + ObjectName.quote(this.name));
+    }
+
+    public void poll() {
+        this.polls.incrementAndGet();
+    }
+
+    public void requestStarted() {
+        this.requests.incrementAndGet();
+        this.inFlight.incrementAndGet();
+    }
+
+    public void requestFinished(final long nanos) {
+        this.inFlight.decrementAndGet();
+        this.totalTime.record(nanos);
+    }
+
+    public void connected(final long nanos) {
+        this.connectTime.record(nanos);
+    }
+
+    public void firstByte(final long nanos) {
+        this.firstByteTime.record(nanos);
+    }
+
+    public void parsed(final long nanos) {
+        this.parseTime.record(nanos);
+    }
+
+    public void received(final long bytes) {
+        this.responseBytes.addAndGet(bytes);
+    }
+
+    /**
+     * A response which was not an error.
+     */
+    public void responded() {
+        this.lastResponse = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Milliseconds since the last response which was not an error,
+     * Long.MAX_VALUE when there was none.
+     */
+    public long getStaleness() {
+        long last = this.lastResponse;
+        return last == 0 ? Long.MAX_VALUE : System.currentTimeMillis() - last;
+    }
+
+    /**
+     * @param error The HTTP status, 'io', 'circuit-open' or 'rate-limited'.
+     */
+    public void error(final String error) {
+        AtomicLong counter = this.errors.get(error);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = this.errors.putIfAbsent(error, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public long getPolls() {
+        return this.polls.get();
+    }
+
+    @Override
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    @Override
+    public long getInFlight() {
+        return this.inFlight.get();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getConnectTime() {
+        return this.connectTime.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFirstByteTime() {
+        return this.firstByteTime.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getTotalTime() {
+        return this.totalTime.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getParseTime() {
+        return this.parseTime.snapshot();
+    }
+
+    @Override
+    public long getResponseBytes() {
+        return this.responseBytes.get();
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> error : this.errors.entrySet()) {
+            result.put(error.getKey(), error.getValue().get());
+        }
+        return result;
+    }
+
+    @Override
+    public String getBreakerState() {
+        CircuitBreaker breaker = this.getBreaker();
+        return breaker == null ? null : breaker.getState().name();
+    }
+
+    @Override
+    public Map<String, Long> getBreakerCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        CircuitBreaker breaker = this.getBreaker();
+        if (breaker != null) {
+            result.put("opened", breaker.getOpenedCount());
+            result.put("half-opened", breaker.getHalfOpenedCount());
+            result.put("closed", breaker.getClosedCount());
+            result.put("rejected", breaker.getRejectedCount());
+        }
+        return result;
+    }
+
+    /**
+     * @return The breaker of the registry, null for a repository.
+     */
+    private CircuitBreaker getBreaker() {
+        return "Registry".equals(this.type) ? CircuitBreaker.getBreakers().get(this.name) : null;
+    }
+
+    @Override
+    public void reset() {
+        this.polls.set(0);
+        this.requests.set(0);
+        this.responseBytes.set(0);
+        this.connectTime.reset();
+        this.firstByteTime.reset();
+        this.totalTime.reset();
+        this.parseTime.reset();
+        this.errors.clear();
+    }
+
+    @Override
+    public String toString() {
+        return this.type + " " + this.name;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.Map;
+
+/**
+ * The polling metrics of one registry or repository, as seen through JMX.
+ * The times are in milliseconds.
+ *
+ * @author Jan De Cooman
+ */
+public interface PollMetricsMXBean {
+
+    String getName();
+
+    long getPolls();
+
+    long getRequests();
+
+    long getInFlight();
+
+    LatencyHistogram.Snapshot getConnectTime();
+
+    LatencyHistogram.Snapshot getFirstByteTime();
+
+    LatencyHistogram.Snapshot getTotalTime();
+
+    LatencyHistogram.Snapshot getParseTime();
+
+    long getResponseBytes();
+
+    /**
+     * @return The failed requests by HTTP status. Connection errors are
+     * counted as 'io', rejected requests as 'circuit-open'.
+     */
+    Map<String, Long> getErrors();
+
+    /**
+     * @return The state of the circuit breaker of the registry, null for a
+     * repository or a registry which has not been called.
+     */
+    String getBreakerState();
+
+    /**
+     * @return How often the circuit breaker of the registry opened, let a
+     * probe through ('half-opened'), closed again and rejected a request.
+     * Empty for a repository.
+     */
+    Map<String, Long> getBreakerCounts();
+
+    void reset();
+}
@@ -0,0 +1,278 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.config.Configuration;
+import com.thoughtworks.go.plugin.api.config.Property;
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageConfiguration;
+import com.thoughtworks.go.plugin.api.material.packagerepository.RepositoryConfiguration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * A validated package, ready to be polled.
+ *
+ * The target is compiled once from the configurations. It holds the registry,
+ * the repository, the tag and the URLs of the detected API. The targets are
+ * cached by a hash of the configuration values, so the next polls of the
+ * same package skip the validation and the URL formatting. The least recently
+ * polled targets are evicted first. A tag pattern
+ * is compiled with the target. With mirrors, the URLs and keys are the ones
+ * of the primary registry.
+ *
+ * @author Jan De Cooman
+ */
+public class PollTarget {
+
+    final private static int MAX_TARGETS
+            = HttpSupport.getSystemProperty("docker.repo.targets.cache.size", 10000);
+
+    final private static Map<String, PollTarget> targets = Collections.synchronizedMap(
+            new LinkedHashMap<String, PollTarget>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, PollTarget> eldest) {
+                    return size() > MAX_TARGETS;
+                }
+            });
+
+    final private String registry;
+
+    final private String repository;
+
+    final private String tag;
+
+    final private DockerAPI api;
+
+    final private String tagsUrl;
+
+    final private String tagUrl;
+
+    final private String hubUrl;
+
+    final private String key;
+
+    final private String listKey;
+
+    final private String storeKey;
+
+    final private String name;
+
+    final private String registryKey;
+
+    final private TagMatcher matcher;
+
+    final private Credentials credentials;
+
+    final private RegistryMirrors mirrors;
+
+    private PollTarget(final String registry, final String repository, final String tag,
+            final DockerAPI api, final Credentials credentials, final RegistryMirrors mirrors) {
+        this.registry = registry;
+        // the registry of the Hub only knows the official images with their namespace
+        this.repository = api == DockerAPI.HUB ? DockerHub.repository(repository) : repository;
+        this.tag = tag;
+        this.api = api;
+        this.tagsUrl = api.tags(registry, this.repository);
+        this.tagUrl = api.tag(registry, this.repository, tag);
+        this.hubUrl = api == DockerAPI.HUB ? DockerHub.newestTags(this.repository) : null;
+        this.key = scoped(credentials, registry + "|" + this.repository + "|" + tag);
+        this.listKey = scoped(credentials, TagListCache.key(registry, this.repository));
+        this.storeKey = registry + "|" + this.repository + "|" + tag
+                + (credentials.isAnonymous() ? "" : "|" + credentials.getUsername());
+        this.name = registry + "/" + this.repository;
+        this.registryKey = HttpSupport.getRegistryKey(this.tagsUrl);
+        this.matcher = TagMatcher.isPattern(tag) ? TagMatcher.compile(tag) : null;
+        this.credentials = credentials;
+        this.mirrors = mirrors;
+    }
+
+    /**
+     * @param repositoryConfiguration
+     * @param packageConfiguration
+     * @return The compiled target or null when the configuration has not
+     * been compiled yet.
+     */
+    public static PollTarget lookup(final RepositoryConfiguration repositoryConfiguration,
+            final PackageConfiguration packageConfiguration) {
+        return targets.get(fingerprint(repositoryConfiguration, packageConfiguration));
+    }
+
+    /**
+     * Compile a target. The configurations must be valid.
+     *
+     * @param repositoryConfiguration
+     * @param packageConfiguration
+     * @return PollTarget
+     */
+    public static PollTarget compile(final RepositoryConfiguration repositoryConfiguration,
+            final PackageConfiguration packageConfiguration) {
+
+        String registry = repositoryConfiguration.get(Constants.REGISTRY).getValue();
+        RegistryMirrors mirrors = RegistryMirrors.of(registry);
+        PollTarget target = new PollTarget(mirrors == null ? registry : mirrors.getPrimary(),
+                packageConfiguration.get(Constants.REPOSITORY).getValue(),
+                packageConfiguration.get(Constants.TAG).getValue(),
+                mirrors == null ? DockerRegistry.getInstance(registry).getApiVersion() : mirrors.getApiVersion(),
+                Credentials.of(repositoryConfiguration), mirrors);
+
+        targets.put(fingerprint(repositoryConfiguration, packageConfiguration), target);
+        return target;
+    }
+
+    /**
+     * The keys of authenticated targets start with the scope of the
+     * credentials, the caches do not share them with other credentials.
+     */
+    private static String scoped(final Credentials credentials, final String key) {
+        return credentials.getScope() == null ? key : credentials.getScope() + "|" + key;
+    }
+
+    /**
+     * The hash of all the keys and values of both configurations. Unknown
+     * keys are part of it too, they make the configuration invalid. The
+     * password is in the configuration, so it is not kept in plain text.
+     */
+    private static String fingerprint(final RepositoryConfiguration repositoryConfiguration,
+            final PackageConfiguration packageConfiguration) {
+        StringBuilder fingerprint = new StringBuilder(128);
+        append(fingerprint, repositoryConfiguration);
+        fingerprint.append('\n');
+        append(fingerprint, packageConfiguration);
+        return DigestUtils.sha256Hex(fingerprint.toString());
+    }
+
+    private static void append(final StringBuilder fingerprint, final Configuration configuration) {
+        for (Property property : configuration.list()) {
+            fingerprint.append(property.getKey()).append('=').append(property.getValue()).append('\u0000');
+        }
+    }
+
+    public String getRegistry() {
+        return this.registry;
+    }
+
+    public String getRepository() {
+        return this.repository;
+    }
+
+    public String getTag() {
+        return this.tag;
+    }
+
+    public DockerAPI getApi() {
+        return this.api;
+    }
+
+    /**
+     * @return The URL of the tag list.
+     */
+    public String getTagsUrl() {
+        return this.tagsUrl;
+    }
+
+    /**
+     * @return The URL of the tag. For V2 this is the manifest. Not used
+     * when the tag is a pattern.
+     */
+    public String getTagUrl() {
+        return this.tagUrl;
+    }
+
+    /**
+     * @return The URL of the most recently updated tags on the Hub API, null
+     * when the registry is not Docker Hub.
+     */
+    public String getHubUrl() {
+        return this.hubUrl;
+    }
+
+    /**
+     * @return registry|repository|tag, preceded by the scope of the
+     * credentials when they are not anonymous.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * @return The key of the tag list in the TagListCache, scoped like the
+     * key.
+     */
+    public String getListKey() {
+        return this.listKey;
+    }
+
+    /**
+     * @return The key in the RevisionStore. The scope changes with every
+     * start, so this key has the username instead.
+     */
+    public String getStoreKey() {
+        return this.storeKey;
+    }
+
+    /**
+     * @return The credentials of the registry. They also remember the
+     * authentication challenge of the repository.
+     */
+    public Credentials getCredentials() {
+        return this.credentials;
+    }
+
+    /**
+     * @return The mirrors of the registry, or null when there is only one
+     * URL.
+     */
+    public RegistryMirrors getMirrors() {
+        return this.mirrors;
+    }
+
+    /**
+     * @return The compiled pattern, or null when the tag is a plain tag name.
+     */
+    public TagMatcher getMatcher() {
+        return this.matcher;
+    }
+
+    /**
+     * @return scheme://host:port, the key of the breaker and the metrics of
+     * the registry.
+     */
+    public String getRegistryKey() {
+        return this.registryKey;
+    }
+
+    /**
+     * @return registry/repository, the name of the repository metrics.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String toString() {
+        return this.key;
+    }
+}
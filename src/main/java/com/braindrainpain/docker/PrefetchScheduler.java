@@ -0,0 +1,199 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the tags of the known packages warm in the background.
+ *
+ * The scheduler learns the (registry, repository, tag) triples from the
+ * polls. Every triple is refreshed on a small thread pool at the configured
+ * interval, with some jitter so the refreshes do not all hit the registry at
+ * the same moment. The poller is then answered from memory. A tag which is
+ * older than the staleness bound is not used, the poller fetches it itself.
+ *
+ * The scheduler is optional and only runs when it is enabled.
+ *
+ * @author Jan De Cooman
+ */
+public class PrefetchScheduler {
+
+    final private static Logger LOG = Logger.getLoggerFor(PrefetchScheduler.class);
+
+    private static volatile PrefetchScheduler instance;
+
+    final private ConcurrentMap<String, Target> targets = new ConcurrentHashMap<>();
+
+    final private ScheduledThreadPoolExecutor executor;
+
+    final private Random random = new Random();
+
+    final private long interval;
+
+    final private long staleness;
+
+    private PrefetchScheduler(final int threads, final long interval, final long staleness) {
+        this.interval = interval;
+        this.staleness = staleness;
+        this.executor = new ScheduledThreadPoolExecutor(threads, new ThreadFactory() {
+            final private AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "docker-prefetch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start the scheduler when it is enabled.
+     */
+    public static synchronized void startup() {
+        if (instance != null || !Boolean.getBoolean("docker.repo.prefetch.enabled")) {
+            return;
+        }
+        instance = new PrefetchScheduler(
+                HttpSupport.getSystemProperty("docker.repo.prefetch.threads", 4),
+                HttpSupport.getSystemProperty("docker.repo.prefetch.interval", 60 * 1000),
+                HttpSupport.getSystemProperty("docker.repo.prefetch.staleness", 5 * 60 * 1000));
+        LOG.info("Prefetch scheduler started");
+    }
+
+    public static synchronized void shutdown() {
+        if (instance == null) {
+            return;
+        }
+        instance.executor.shutdownNow();
+        instance.targets.clear();
+        instance = null;
+        LOG.info("Prefetch scheduler stopped");
+    }
+
+    /**
+     * @return The running scheduler or null when it is disabled.
+     */
+    public static PrefetchScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the prefetched tag.
+     *
+     * @param pollTarget
+     * @return The tag or null when it is unknown or stale.
+     */
+    public DockerTag get(final PollTarget pollTarget) {
+        Target target = this.targets.get(pollTarget.getKey());
+        if (target == null) {
+            return null;
+        }
+        target.lastAccess = System.currentTimeMillis();
+        DockerTag tag = target.tag;
+        if (tag == null || System.currentTimeMillis() - target.fetched > this.staleness) {
+            return null;
+        }
+        return tag;
+    }
+
+    /**
+     * Store a tag fetched by the poller. A new package is scheduled for
+     * refresh.
+     *
+     * @param pollTarget
+     * @param tag
+     */
+    public void put(final PollTarget pollTarget, final DockerTag tag) {
+        String key = pollTarget.getKey();
+        Target target = this.targets.get(key);
+        if (target == null) {
+            target = new Target(pollTarget);
+            Target known = this.targets.putIfAbsent(key, target);
+            if (known == null) {
+                this.schedule(target);
+                LOG.debug("Prefetching " + key);
+            } else {
+                target = known;
+            }
+        }
+        target.update(tag);
+    }
+
+    private void schedule(final Target target) {
+        if (this.executor.isShutdown()) {
+            return;
+        }
+        long jitter = (long) (this.random.nextDouble() * this.interval / 4);
+        this.executor.schedule(target, this.interval + jitter, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One prefetched tag.
+     */
+    private class Target implements Runnable {
+
+        final private PollTarget pollTarget;
+
+        private volatile DockerTag tag;
+
+        private volatile long fetched;
+
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        Target(final PollTarget pollTarget) {
+            this.pollTarget = pollTarget;
+        }
+
+        void update(final DockerTag tag) {
+            this.tag = tag;
+            this.fetched = System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            // forget the packages which are no longer polled
+            if (System.currentTimeMillis() - this.lastAccess > 10 * interval) {
+                targets.remove(this.pollTarget.getKey(), this);
+                LOG.debug("Stopped prefetching " + this.pollTarget);
+                return;
+            }
+            try {
+                this.update(DockerRepository.getInstance().refresh(this.pollTarget));
+            } catch (RuntimeException e) {
+                LOG.warn("Prefetch of " + this.pollTarget + " failed: " + e.getMessage());
+            } finally {
+                schedule(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Receives the push notifications of the registries.
+ *
+ * Docker Distribution and Harbor can post an event for every push. The
+ * listener marks the pushed (repository, tag) dirty; a tag is fetched again
+ * on the next poll when it was pushed after it was last fetched. The other
+ * tags are answered from memory until they reach the maximum age, which
+ * covers the notifications which got lost. So Go can poll at a long interval
+ * and still see a push within seconds.
+ *
+ * <ul>
+ * <li>Docker Distribution: <code>{"events": [{"action": "push", "target":
+ * {"mediaType": "...", "repository": "team/app", "tag": "1.0"}}]}</code></li>
+ * <li>Harbor: <code>{"type": "PUSH_ARTIFACT", "event_data": {"repository":
+ * {"repo_full_name": "team/app"}, "resources": [{"tag": "1.0"}]}}</code></li>
+ * </ul>
+ *
+ * The events do not tell the registry reliably, a push to a repository marks
+ * the repository of that name dirty on every registry. The listener is
+ * optional and only runs when it has a port. It listens on the loopback
+ * interface unless it is given a host; the least recently used pushes and
+ * tags are dropped first.
+ *
+ * @author Jan De Cooman
+ */
+public class PushListener {
+
+    final private static Logger LOG = Logger.getLoggerFor(PushListener.class);
+
+    /**
+     * The largest event envelope which is read.
+     */
+    final private static int MAX_BODY = 1024 * 1024;
+
+    final private static int MAX_TARGETS = HttpSupport.getSystemProperty("docker.repo.targets.cache.size", 10000);
+
+    private static volatile PushListener instance;
+
+    /**
+     * The time of the last push per "repository:tag", per "repository:" for
+     * the events without a tag, and per "repository" for any event.
+     */
+    final private Map<String, Long> pushes = lru();
+
+    final private Map<String, Known> known = lru();
+
+    final private HttpServer server;
+
+    final private ExecutorService executor;
+
+    final private String token;
+
+    final private long maxAge;
+
+    private PushListener(final HttpServer server, final String token, final long maxAge) {
+        this.server = server;
+        this.token = token;
+        this.maxAge = maxAge;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "docker-notifications");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    exchange.sendResponseHeaders(receive(exchange), -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Start the listener when it has a port.
+     */
+    public static synchronized void startup() {
+        int port = HttpSupport.getSystemProperty("docker.repo.notifications.port", 0);
+        if (instance != null || port <= 0) {
+            return;
+        }
+        String host = System.getProperty("docker.repo.notifications.host", "127.0.0.1");
+        String token = System.getProperty("docker.repo.notifications.token");
+        try {
+            InetSocketAddress address = new InetSocketAddress(host, port);
+            HttpServer server = HttpServer.create(address, 64);
+            instance = new PushListener(server, token,
+                    HttpSupport.getSystemProperty("docker.repo.notifications.max.age", 60 * 60 * 1000));
+            server.start();
+            LOG.info("Listening for registry notifications on " + host + ":" + port);
+            if (token == null && !address.getAddress().isLoopbackAddress()) {
+                LOG.warn("The registry notifications on " + host
+                        + " are accepted without a token, set docker.repo.notifications.token");
+            }
+        } catch (IOException e) {
+            LOG.error("Cannot listen for registry notifications on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    public static synchronized void shutdown() {
+        if (instance == null) {
+            return;
+        }
+        instance.server.stop(0);
+        instance.executor.shutdownNow();
+        instance = null;
+        LOG.info("Stopped listening for registry notifications");
+    }
+
+    /**
+     * @return The running listener or null when it is disabled.
+     */
+    public static PushListener getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param target
+     * @return The last fetched tag when it was not pushed since and is not
+     * older than the maximum age, otherwise null.
+     */
+    public DockerTag get(final PollTarget target) {
+        Known entry = this.known.get(target.getKey());
+        if (entry == null || System.currentTimeMillis() - entry.fetched > this.maxAge
+                || this.isPushed(target, entry.fetched)) {
+            return null;
+        }
+        return entry.tag;
+    }
+
+    /**
+     * @param target
+     * @return true when the tag was pushed after it was last fetched, the
+     * caches of the plugin must not answer it then.
+     */
+    public boolean isDirty(final PollTarget target) {
+        Known entry = this.known.get(target.getKey());
+        return this.isPushed(target, entry == null ? 0 : entry.fetched);
+    }
+
+    /**
+     * Store a fetched tag.
+     *
+     * @param target
+     * @param tag
+     * @param fetched The time the fetch started, a push during the fetch
+     * leaves the tag dirty.
+     */
+    public void put(final PollTarget target, final DockerTag tag, final long fetched) {
+        this.known.put(target.getKey(), new Known(tag, fetched));
+    }
+
+    private boolean isPushed(final PollTarget target, final long since) {
+        String repository = target.getRepository();
+        if (target.getMatcher() != null) {
+            return pushedAfter(repository, since);
+        }
+        return pushedAfter(repository + ":" + target.getTag(), since) || pushedAfter(repository + ":", since);
+    }
+
+    private boolean pushedAfter(final String key, final long since) {
+        Long pushed = this.pushes.get(key);
+        return pushed != null && pushed >= since;
+    }
+
+    /**
+     * Mark a tag dirty, or the whole repository when the tag is null.
+     *
+     * @param repository
+     * @param tag
+     */
+    public void pushed(final String repository, final String tag) {
+        long now = System.currentTimeMillis();
+        this.pushes.put(repository + ":" + (tag == null ? "" : tag), now);
+        this.pushes.put(repository, now);
+        DockerRepository.pushed(repository);
+        LOG.debug("Pushed " + repository + (tag == null ? "" : ":" + tag));
+    }
+
+    /**
+     * @return The status of the answer.
+     */
+    private int receive(final HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            return 405;
+        }
+        if (this.token != null) {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !(authorization.equals(this.token)
+                    || authorization.equals("Bearer " + this.token))) {
+                return 401;
+            }
+        }
+        byte[] body = read(exchange.getRequestBody());
+        if (body == null) {
+            return 413;
+        }
+        List<String[]> events;
+        try {
+            events = parse(new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), "UTF-8")));
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Invalid registry notification: " + e.getMessage());
+            return 400;
+        }
+        for (String[] event : events) {
+            this.pushed(event[0], event[1]);
+        }
+        return 200;
+    }
+
+    /**
+     * @return The body, or null when it is too large.
+     */
+    private static byte[] read(final InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            body.write(buffer, 0, read);
+            if (body.size() > MAX_BODY) {
+                return null;
+            }
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * @return The pushed repository and tag of the events. The tag is null
+     * when the event does not tell it.
+     */
+    static List<String[]> parse(final JsonReader json) throws IOException {
+        List<String[]> events = new ArrayList<>();
+        String type = null;
+        List<String[]> harbor = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("events".equals(name) && json.peek() == JsonToken.BEGIN_ARRAY) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    parseEvent(json, events);
+                }
+                json.endArray();
+            } else if ("type".equals(name) && json.peek() == JsonToken.STRING) {
+                type = json.nextString();
+            } else if ("event_data".equals(name) && json.peek() == JsonToken.BEGIN_OBJECT) {
+                harbor = parseHarbor(json);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        // the type may follow the event data, a Harbor event without a type is skipped
+        if (harbor != null && type != null && (type.startsWith("PUSH") || type.startsWith("DELETE"))) {
+            events.addAll(harbor);
+        }
+        return events;
+    }
+
+    /**
+     * A Docker Distribution event. Only the pushes and deletes of manifests
+     * change a tag, the pulls and the layers are skipped.
+     */
+    private static void parseEvent(final JsonReader json, final List<String[]> events) throws IOException {
+        String action = null;
+        String[] target = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("action".equals(name) && json.peek() == JsonToken.STRING) {
+                action = json.nextString();
+            } else if ("target".equals(name) && json.peek() == JsonToken.BEGIN_OBJECT) {
+                target = readObject(json, "repository", "tag", "mediaType");
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        if (target == null || target[0] == null || !("push".equals(action) || "delete".equals(action))) {
+            return;
+        }
+        String mediaType = target[2];
+        if (target[1] != null || mediaType == null || mediaType.contains("manifest") || mediaType.contains("index")) {
+            events.add(new String[]{target[0], target[1]});
+        }
+    }
+
+    /**
+     * The event data of a Harbor webhook.
+     */
+    static List<String[]> parseHarbor(final JsonReader json) throws IOException {
+        String repository = null;
+        List<String> tags = new ArrayList<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if ("repository".equals(name) && json.peek() == JsonToken.BEGIN_OBJECT) {
+                repository = readObject(json, "repo_full_name")[0];
+            } else if ("resources".equals(name) && json.peek() == JsonToken.BEGIN_ARRAY) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    if (json.peek() == JsonToken.BEGIN_OBJECT) {
+                        tags.add(readObject(json, "tag")[0]);
+                    } else {
+                        json.skipValue();
+                    }
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        List<String[]> events = new ArrayList<>();
+        if (repository != null) {
+            if (tags.isEmpty()) {
+                tags.add(null);
+            }
+            for (String tag : tags) {
+                events.add(new String[]{repository, tag});
+            }
+        }
+        return events;
+    }
+
+    private static <V> Map<String, V> lru() {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+                return size() > MAX_TARGETS;
+            }
+        });
+    }
+
+    /**
+     * @return The string values of the fields, null when they are missing.
+     */
+    private static String[] readObject(final JsonReader json, final String... fields) throws IOException {
+        String[] values = new String[fields.length];
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            int index = -1;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].equals(name)) {
+                    index = i;
+                }
+            }
+            if (index >= 0 && json.peek() == JsonToken.STRING) {
+                values[index] = json.nextString();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return values;
+    }
+
+    /**
+     * A fetched tag.
+     */
+    private static class Known {
+
+        final private DockerTag tag;
+
+        final private long fetched;
+
+        Known(final DockerTag tag, final long fetched) {
+            this.tag = tag;
+            this.fetched = fetched;
+        }
+    }
+}
@@ -0,0 +1,558 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+
+/**
+ * Token buckets of one registry, shared by all the requests to it.
+ *
+ * The bucket of the requests refills at the configured rate. The quota a
+ * registry announces in the RateLimit headers of its manifests, like the
+ * pull limit of Docker Hub, only covers the pulls: the GET requests of the
+ * manifests take a token of a second bucket, which refills at the rate of
+ * the RateLimit-Limit header. The RateLimit-Remaining header drains that
+ * bucket to what the registry still allows; when nothing remains the pulls
+ * wait for the RateLimit-Reset. The HEAD requests and the tag lists do not
+ * wait for the quota.
+ *
+ * A 429 halves the rate the requests were sent at. Every response which is
+ * not throttled lets the rate grow back a little, and the cut is dropped
+ * after a minute without 429. The throttled request itself is sent again
+ * after its Retry-After.
+ *
+ * A request which finds the bucket empty waits for its token. The waiting
+ * requests get the tokens in order of staleness: the repository which has
+ * not had a response for the longest time goes first. A request which would
+ * wait longer than the maximum wait fails without being sent.
+ *
+ * Without a configured rate, and as long as the registry neither announces a
+ * rate nor throttles, the requests do not wait.
+ *
+ * @author Jan De Cooman
+ */
+public class RateLimiter {
+
+    final private static Logger LOG = Logger.getLoggerFor(RateLimiter.class);
+
+    /**
+     * The wait after a 429 without Retry-After.
+     */
+    final private static long DEFAULT_RETRY_AFTER = 1000;
+
+    /**
+     * The lowest rate after 429s, in tokens per millisecond.
+     */
+    final private static double MIN_RATE = 1.0 / 1000;
+
+    /**
+     * The growth of a cut rate per response, in tokens per millisecond.
+     */
+    final private static double RECOVERY = 0.1 / 1000;
+
+    /**
+     * A cut rate is dropped after this time without 429.
+     */
+    final private static long RECOVERY_TIME = 60 * 1000;
+
+    final private static ConcurrentMap<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+
+    final private String registry;
+
+    /**
+     * The configured rate, in tokens per millisecond.
+     */
+    final private double configuredRate;
+
+    final private double configuredBurst;
+
+    final private long maxWait;
+
+    /**
+     * The rate the registry announced for the pulls, in tokens per
+     * millisecond.
+     */
+    private double announcedRate;
+
+    private double announcedBurst;
+
+    /**
+     * The rate after 429s, in tokens per millisecond.
+     */
+    private double cutRate;
+
+    private long lastThrottled;
+
+    /**
+     * All the requests.
+     */
+    final private Bucket requests;
+
+    /**
+     * The pulls, under the quota the registry announced.
+     */
+    final private Bucket pulls;
+
+    /**
+     * The requests of the current second, to know the rate they are sent at.
+     */
+    private long secondStart = System.currentTimeMillis();
+
+    private long secondRequests;
+
+    private double sentRate;
+
+    private long sequence;
+
+    private long throttled;
+
+    private long deferred;
+
+    private long rejected;
+
+    RateLimiter(final String registry, final double rate, final double burst, final long maxWait) {
+        this.registry = registry;
+        this.configuredRate = rate / 1000;
+        this.configuredBurst = Math.max(1, burst);
+        this.maxWait = maxWait;
+        this.requests = new Bucket(false);
+        this.pulls = new Bucket(true);
+    }
+
+    /**
+     * @param registry scheme://host:port of the registry.
+     * @return The limiter of the registry.
+     */
+    public static RateLimiter getInstance(final String registry) {
+        RateLimiter limiter = limiters.get(registry);
+        if (limiter == null) {
+            long rate = HttpSupport.getSystemProperty("docker.repo.rate.limit", 0);
+            limiter = new RateLimiter(registry, rate,
+                    HttpSupport.getSystemProperty("docker.repo.rate.burst", (int) Math.max(10, rate)),
+                    HttpSupport.getSystemProperty("docker.repo.rate.max.wait", 60 * 1000));
+            RateLimiter known = limiters.putIfAbsent(registry, limiter);
+            if (known != null) {
+                limiter = known;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * @return All the limiters by registry, for monitoring.
+     */
+    public static Map<String, RateLimiter> getLimiters() {
+        return Collections.unmodifiableMap(limiters);
+    }
+
+    /**
+     * Take a token, waiting for it when the bucket is empty or the registry
+     * asked to wait for its reset. A pull takes a token of the announced
+     * quota first.
+     *
+     * @param staleness Milliseconds since the repository of the request had a
+     * response, the stalest request gets the next token.
+     * @param pull true for a GET of a manifest.
+     * @return false when the token would not be there within the maximum
+     * wait.
+     * @throws InterruptedException
+     */
+    public synchronized boolean acquire(final long staleness, final boolean pull)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + this.maxWait;
+        if (pull && !this.pulls.acquire(staleness, deadline)) {
+            return false;
+        }
+        if (!this.requests.acquire(staleness, deadline)) {
+            if (pull) {
+                this.pulls.giveBack();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wait for the Retry-After of a 429 before the request is sent again.
+     *
+     * @param method The throttled request.
+     * @return false when the Retry-After is longer than the maximum wait.
+     * @throws InterruptedException
+     */
+    public boolean awaitRetry(final HttpMethod method) throws InterruptedException {
+        long now = System.currentTimeMillis();
+        long delay = Math.max(0, retryAfter(method.getResponseHeader("Retry-After"), now) - now);
+        if (delay > this.maxWait) {
+            return false;
+        }
+        Thread.sleep(delay);
+        return true;
+    }
+
+    /**
+     * Learn from the response: a 429 cuts the rate, the RateLimit headers of
+     * a manifest set the rate and the remaining tokens of the pulls.
+     *
+     * @param method
+     * @param status
+     * @param manifest true when the request was a GET or HEAD of a manifest.
+     */
+    public void update(final HttpMethod method, final int status, final boolean manifest) {
+        long now = System.currentTimeMillis();
+        if (!manifest) {
+            synchronized (this) {
+                this.learn(now, status);
+            }
+            return;
+        }
+        Header limitHeader = method.getResponseHeader("RateLimit-Limit");
+        Header remainingHeader = method.getResponseHeader("RateLimit-Remaining");
+        long limit = number(limitHeader);
+        long remaining = number(remainingHeader);
+        long window = window(limitHeader, window(remainingHeader, -1));
+        long reset = number(method.getResponseHeader("RateLimit-Reset"));
+        synchronized (this) {
+            this.pulls.refill(now);
+            this.learn(now, status);
+            if (limit > 0 && (window > 0 || reset > 0)) {
+                if (this.announcedRate == 0) {
+                    this.pulls.tokens = limit;
+                }
+                this.announcedRate = (double) limit / ((window > 0 ? window : reset) * 1000);
+                this.announcedBurst = limit;
+            }
+            if (remaining >= 0) {
+                this.pulls.tokens = Math.min(this.pulls.tokens, remaining);
+            }
+            if (remaining == 0 && reset > 0) {
+                this.pulls.pausedUntil = Math.max(this.pulls.pausedUntil, now + reset * 1000);
+            }
+            this.notifyAll();
+        }
+    }
+
+    private void learn(final long now, final int status) {
+        this.requests.refill(now);
+        if (status == 429) {
+            this.throttled(now);
+        } else if (this.cutRate > 0) {
+            this.recover(now);
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Halve the rate the requests were sent at. The 429s of the requests
+     * which were sent before the last cut do not cut it again.
+     */
+    private void throttled(final long now) {
+        this.throttled++;
+        boolean cut = now - this.lastThrottled >= DEFAULT_RETRY_AFTER;
+        this.lastThrottled = now;
+        if (!cut) {
+            return;
+        }
+        double sent = Math.max(this.sentRate,
+                (double) this.secondRequests / Math.max(1, now - this.secondStart));
+        double rate = this.configuredRate;
+        this.cutRate = Math.max(MIN_RATE, (rate > 0 ? Math.min(rate, sent) : sent) / 2);
+        this.requests.tokens = Math.min(this.requests.tokens, 1);
+        LOG.info("Registry '" + this.registry + "' is throttling, requests are sent at "
+                + String.format("%.1f", this.cutRate * 1000) + "/s");
+    }
+
+    private void recover(final long now) {
+        if (now - this.lastThrottled > RECOVERY_TIME) {
+            this.cutRate = 0;
+            LOG.info("Registry '" + this.registry + "' is no longer throttling");
+        } else {
+            this.cutRate += RECOVERY;
+        }
+    }
+
+    /**
+     * @return The rate of all the requests in tokens per millisecond, 0 when
+     * it is not limited.
+     */
+    private double getRate() {
+        if (this.cutRate > 0) {
+            return this.configuredRate > 0 ? Math.min(this.configuredRate, this.cutRate) : this.cutRate;
+        }
+        return this.configuredRate;
+    }
+
+    private double getBurst() {
+        if (this.cutRate > 0) {
+            // a second of requests at most
+            return Math.max(1, Math.min(this.configuredBurst, this.cutRate * 1000));
+        }
+        return this.configuredBurst;
+    }
+
+    /**
+     * Retry-After is either seconds or a date.
+     */
+    private static long retryAfter(final Header header, final long now) {
+        if (header == null) {
+            return now + DEFAULT_RETRY_AFTER;
+        }
+        String value = header.getValue().trim();
+        try {
+            return now + Long.parseLong(value) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                Date date = DateUtil.parseDate(value);
+                return Math.max(now, date.getTime());
+            } catch (DateParseException ex) {
+                return now + DEFAULT_RETRY_AFTER;
+            }
+        }
+    }
+
+    /**
+     * The number of a RateLimit header, like '100' or '100;w=21600'.
+     *
+     * @return The number or -1.
+     */
+    private static long number(final Header header) {
+        if (header == null) {
+            return -1;
+        }
+        String value = header.getValue();
+        int end = 0;
+        while (end < value.length() && (Character.isDigit(value.charAt(end)) || value.charAt(end) == ' ')) {
+            end++;
+        }
+        try {
+            return Long.parseLong(value.substring(0, end).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The window in seconds of a RateLimit header, the 'w' parameter.
+     */
+    private static long window(final Header header, final long defaultValue) {
+        if (header == null) {
+            return defaultValue;
+        }
+        String value = header.getValue();
+        int index = value.indexOf(";w=");
+        if (index < 0) {
+            return defaultValue;
+        }
+        int end = index + 3;
+        while (end < value.length() && Character.isDigit(value.charAt(end))) {
+            end++;
+        }
+        try {
+            return Long.parseLong(value.substring(index + 3, end));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public String getRegistry() {
+        return this.registry;
+    }
+
+    /**
+     * @return The number of 429 responses.
+     */
+    public synchronized long getThrottledCount() {
+        return this.throttled;
+    }
+
+    /**
+     * @return The number of requests which had to wait.
+     */
+    public synchronized long getDeferredCount() {
+        return this.deferred;
+    }
+
+    /**
+     * @return The number of requests which were not sent.
+     */
+    public synchronized long getRejectedCount() {
+        return this.rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.registry + " " + String.format("%.2f", this.getRate() * 1000) + "/s, pulls "
+                + String.format("%.4f", this.announcedRate * 1000) + "/s (throttled " + this.throttled
+                + ", deferred " + this.deferred + ", rejected " + this.rejected + ")";
+    }
+
+    /**
+     * A token bucket with the requests which wait for it. It is guarded by
+     * the lock of the limiter.
+     */
+    private class Bucket {
+
+        /**
+         * The bucket of the announced quota, otherwise of all the requests.
+         */
+        final private boolean announced;
+
+        final private PriorityQueue<Waiter> waiters = new PriorityQueue<>(16, new Comparator<Waiter>() {
+            @Override
+            public int compare(final Waiter a, final Waiter b) {
+                if (a.staleness != b.staleness) {
+                    return a.staleness > b.staleness ? -1 : 1;
+                }
+                return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            }
+        });
+
+        private double tokens;
+
+        private long refilled = System.currentTimeMillis();
+
+        private long pausedUntil;
+
+        Bucket(final boolean announced) {
+            this.announced = announced;
+            this.tokens = announced ? 0 : configuredBurst;
+        }
+
+        boolean acquire(final long staleness, final long deadline) throws InterruptedException {
+            long now = System.currentTimeMillis();
+            if (this.waiters.isEmpty() && this.take(now)) {
+                return true;
+            }
+            Waiter waiter = new Waiter(staleness, sequence++);
+            this.waiters.add(waiter);
+            deferred++;
+            try {
+                while (true) {
+                    boolean first = this.waiters.peek() == waiter;
+                    if (first && this.take(now)) {
+                        return true;
+                    }
+                    long ready = this.readyAt(now);
+                    if (ready > deadline) {
+                        rejected++;
+                        return false;
+                    }
+                    // only the first waiter can take the next token, the
+                    // others are woken when it leaves the queue
+                    RateLimiter.this.wait(Math.max(1, (first ? ready : deadline) - now));
+                    now = System.currentTimeMillis();
+                }
+            } finally {
+                this.waiters.remove(waiter);
+                RateLimiter.this.notifyAll();
+            }
+        }
+
+        /**
+         * Return the token of a request which was not sent.
+         */
+        void giveBack() {
+            if (this.getRate() > 0) {
+                this.tokens = Math.min(this.getBurst(), this.tokens + 1);
+            }
+        }
+
+        private boolean take(final long now) {
+            this.refill(now);
+            if (now < this.pausedUntil) {
+                return false;
+            }
+            if (this.getRate() > 0) {
+                if (this.tokens < 1) {
+                    return false;
+                }
+                this.tokens--;
+            }
+            if (!this.announced) {
+                if (now - secondStart >= 1000) {
+                    sentRate = (double) secondRequests / (now - secondStart);
+                    secondStart = now;
+                    secondRequests = 0;
+                }
+                secondRequests++;
+            }
+            return true;
+        }
+
+        /**
+         * @return The time at which the next token is there.
+         */
+        private long readyAt(final long now) {
+            double rate = this.getRate();
+            long ready = rate == 0 || this.tokens >= 1 ? now : now + (long) Math.ceil((1 - this.tokens) / rate);
+            return Math.max(ready, this.pausedUntil);
+        }
+
+        /**
+         * Add the tokens since the last refill. No tokens are added while the
+         * registry is paused, it counts its window from the end of the pause.
+         */
+        void refill(final long now) {
+            double rate = this.getRate();
+            long from = Math.max(this.refilled, Math.min(this.pausedUntil, now));
+            if (rate > 0 && now > from) {
+                this.tokens = Math.min(this.getBurst(), this.tokens + (now - from) * rate);
+            }
+            this.refilled = now;
+        }
+
+        private double getRate() {
+            return this.announced ? announcedRate : RateLimiter.this.getRate();
+        }
+
+        private double getBurst() {
+            return this.announced ? announcedBurst : RateLimiter.this.getBurst();
+        }
+    }
+
+    /**
+     * A request waiting for a token.
+     */
+    private static class Waiter {
+
+        final private long staleness;
+
+        final private long sequence;
+
+        Waiter(final long staleness, final long sequence) {
+            this.staleness = staleness;
+            this.sequence = sequence;
+        }
+    }
+}
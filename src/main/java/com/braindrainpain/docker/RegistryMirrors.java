@@ -0,0 +1,224 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A registry with pull-through mirrors, configured as a comma separated list
+ * of URLs. The first URL is the primary registry, it names the packages and
+ * keys the caches.
+ *
+ * Every endpoint keeps an exponentially weighted average of its response
+ * time. The requests go to the fastest endpoint whose circuit breaker lets
+ * requests through; an endpoint which has not answered yet is tried first, so all of
+ * them get measured.
+ *
+ * @author Jan De Cooman
+ */
+public class RegistryMirrors {
+
+    final private static Logger LOG = Logger.getLoggerFor(RegistryMirrors.class);
+
+    /**
+     * Weight of the last response time in the average.
+     */
+    final private static double ALPHA = 0.2;
+
+    final private static ConcurrentMap<String, RegistryMirrors> instances = new ConcurrentHashMap<>();
+
+    final private List<Endpoint> endpoints;
+
+    private RegistryMirrors(final List<String> urls) {
+        List<Endpoint> list = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            list.add(new Endpoint(urls.get(i), i));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @param registry The value of the REGISTRY property.
+     * @return The URLs in the list, without blanks.
+     */
+    public static List<String> parse(final String registry) {
+        List<String> urls = new ArrayList<>();
+        if (registry == null) {
+            return urls;
+        }
+        for (String url : registry.split(",")) {
+            if (!url.trim().isEmpty()) {
+                urls.add(url.trim());
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * @param registry The value of the REGISTRY property.
+     * @return The mirrors, or null when the registry is a single URL.
+     */
+    public static RegistryMirrors of(final String registry) {
+        RegistryMirrors mirrors = instances.get(registry);
+        if (mirrors == null) {
+            List<String> urls = parse(registry);
+            if (urls.size() < 2) {
+                return null;
+            }
+            RegistryMirrors created = new RegistryMirrors(urls);
+            mirrors = instances.putIfAbsent(registry, created);
+            if (mirrors == null) {
+                mirrors = created;
+            }
+        }
+        return mirrors;
+    }
+
+    public String getPrimary() {
+        return this.endpoints.get(0).url;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return this.endpoints;
+    }
+
+    /**
+     * The API of the first endpoint which answers the probe.
+     *
+     * @return DockerAPI
+     */
+    public DockerAPI getApiVersion() {
+        RuntimeException failure = null;
+        for (Endpoint endpoint : this.endpoints) {
+            try {
+                return DockerRegistry.getInstance(endpoint.url).getApiVersion();
+            } catch (RuntimeException e) {
+                LOG.warn("Cannot probe " + endpoint.url + ": " + e.getMessage());
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * @return The endpoints, the fastest healthy one first and the ones with
+     * an open breaker last.
+     */
+    public List<Endpoint> order() {
+        Endpoint[] ordered = this.endpoints.toArray(new Endpoint[this.endpoints.size()]);
+        final boolean[] healthy = new boolean[ordered.length];
+        final double[] latency = new double[ordered.length];
+        for (Endpoint endpoint : ordered) {
+            healthy[endpoint.index] = endpoint.isHealthy();
+            latency[endpoint.index] = endpoint.latency;
+        }
+        Arrays.sort(ordered, new Comparator<Endpoint>() {
+            @Override
+            public int compare(final Endpoint left, final Endpoint right) {
+                if (healthy[left.index] != healthy[right.index]) {
+                    return healthy[left.index] ? -1 : 1;
+                }
+                int compare = Double.compare(latency[left.index], latency[right.index]);
+                return compare != 0 ? compare : left.index - right.index;
+            }
+        });
+        return Arrays.asList(ordered);
+    }
+
+    /**
+     * One registry URL of the list.
+     */
+    public static class Endpoint {
+
+        final private String url;
+
+        final private int index;
+
+        final private String registryKey;
+
+        /**
+         * Average response time in nanoseconds, 0 until the first response.
+         */
+        private volatile double latency;
+
+        Endpoint(final String url, final int index) {
+            this.url = url;
+            this.index = index;
+            this.registryKey = HttpSupport.getRegistryKey(url);
+        }
+
+        public String getUrl() {
+            return this.url;
+        }
+
+        public double getLatency() {
+            return this.latency;
+        }
+
+        public boolean isHealthy() {
+            return CircuitBreaker.getInstance(this.registryKey).isAvailable();
+        }
+
+        /**
+         * @param primary The URL of the primary registry.
+         * @param url A URL of the primary registry.
+         * @return The same URL on this endpoint.
+         */
+        public String rewrite(final String primary, final String url) {
+            if (!url.startsWith(primary)) {
+                return url;
+            }
+            return this.url + url.substring(primary.length());
+        }
+
+        /**
+         * @param nanos The time of a response.
+         */
+        public synchronized void record(final long nanos) {
+            this.latency = this.latency == 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * this.latency;
+        }
+
+        /**
+         * A request failed. The average is doubled, so the endpoint is tried
+         * after the others until it answers fast again.
+         *
+         * @param nanos The time until the failure.
+         */
+        public synchronized void penalize(final long nanos) {
+            this.latency = Math.max(2 * this.latency, nanos);
+        }
+
+        @Override
+        public String toString() {
+            return this.url + " (" + Math.round(this.latency / 1e6) + "ms)";
+        }
+    }
+}
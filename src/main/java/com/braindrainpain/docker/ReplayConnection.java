@@ -0,0 +1,105 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpParser;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * A connection which answers a method with a response that has already been
+ * received. The winner of a hedged request is replayed into the method of
+ * the caller through this connection, so the caller sees the same method as
+ * without hedging.
+ *
+ * The request the method writes is dropped, it has been sent already.
+ *
+ * @author Jan De Cooman
+ */
+public class ReplayConnection extends HttpConnection {
+
+    final private InputStream response;
+
+    public ReplayConnection(final HttpMethod method, final InputStream response) throws IOException {
+        super(method.getURI().getHost(), method.getURI().getPort(),
+                Protocol.getProtocol(method.getURI().getScheme()));
+        this.response = response;
+        this.isOpen = true;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void write(final byte[] data, final int offset, final int length) {
+    }
+
+    @Override
+    public OutputStream getRequestOutputStream() {
+        return new NullOutputStream();
+    }
+
+    @Override
+    public void flushRequestOutputStream() {
+    }
+
+    @Override
+    public InputStream getResponseInputStream() {
+        return this.response;
+    }
+
+    @Override
+    public boolean isResponseAvailable() throws IOException {
+        return this.response.available() > 0;
+    }
+
+    @Override
+    public boolean isResponseAvailable(final int timeout) throws IOException {
+        return this.isResponseAvailable();
+    }
+
+    @Override
+    public String readLine(final String charset) throws IOException {
+        return HttpParser.readLine(this.response, charset);
+    }
+
+    @Override
+    public void setSocketTimeout(final int timeout) {
+    }
+
+    @Override
+    public void close() {
+        this.isOpen = false;
+    }
+
+    @Override
+    public void releaseConnection() {
+    }
+}
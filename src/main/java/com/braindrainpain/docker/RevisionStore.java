@@ -0,0 +1,378 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Keeps the resolved tags and the validators across restarts.
+ *
+ * Every change is appended as one line to a file in the cache directory:
+ *
+ * <pre>
+ * R  target-key  tag  digest  fetched
+ * V  validator-key  etag  last-modified  tag  digest  fetched
+ * </pre>
+ *
+ * The file is read when the plugin is loaded. The last line of a key wins,
+ * the file is then rewritten with the live lines only. After a restart the
+ * polls of a known package are answered from the file until a random moment
+ * within the warmup period, so the registry is not hit by all the packages
+ * at once. The validators make the first requests conditional.
+ *
+ * @author Jan De Cooman
+ */
+public class RevisionStore {
+
+    final private static Logger LOG = Logger.getLoggerFor(RevisionStore.class);
+
+    final private static String FILE_NAME = "revisions.log";
+
+    final private static String UTF8 = "UTF-8";
+
+    private static volatile RevisionStore instance;
+
+    final private File file;
+
+    final private long warmup;
+
+    final private long maxAge;
+
+    /**
+     * The last persisted tag per target.
+     */
+    final private ConcurrentMap<String, Revision> revisions = new ConcurrentHashMap<>();
+
+    /**
+     * The loaded tags which still answer the polls after a restart.
+     */
+    final private ConcurrentMap<String, Revision> warm = new ConcurrentHashMap<>();
+
+    /**
+     * The last persisted validators, guarded by this.
+     */
+    final private Map<String, String> validators;
+
+    private Writer writer;
+
+    private int lines;
+
+    private RevisionStore(final File file, final long warmup, final long maxAge, final int maxValidators) {
+        this.file = file;
+        this.warmup = warmup;
+        this.maxAge = maxAge;
+        this.validators = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                return size() > maxValidators;
+            }
+        };
+    }
+
+    /**
+     * Load the file and restore the validators. The store is disabled when
+     * the cache directory is set to an empty value.
+     *
+     * @param validatorCache Receives the loaded validators.
+     */
+    public static synchronized void startup(final ValidatorCache validatorCache) {
+        String directory = System.getProperty("docker.repo.cache.dir", "plugins_work/docker-material-poller");
+        if (instance != null || directory.trim().isEmpty()) {
+            return;
+        }
+        RevisionStore store = new RevisionStore(new File(directory, FILE_NAME),
+                HttpSupport.getSystemProperty("docker.repo.cache.warmup", 2 * 60 * 1000),
+                HttpSupport.getSystemProperty("docker.repo.cache.max.age", 24 * 60 * 60 * 1000),
+                HttpSupport.getSystemProperty("docker.repo.validator.cache.size", 5000));
+        try {
+            store.load(validatorCache);
+            store.compact();
+        } catch (IOException e) {
+            LOG.warn("Cannot use the revision cache " + store.file + ": " + e.getMessage());
+            store.close();
+            return;
+        }
+        instance = store;
+        LOG.info("Revision cache loaded: " + store.revisions.size() + " tags, "
+                + store.validators.size() + " validators");
+    }
+
+    public static synchronized void shutdown() {
+        if (instance == null) {
+            return;
+        }
+        instance.close();
+        instance = null;
+        LOG.info("Revision cache closed");
+    }
+
+    /**
+     * @return The open store or null when it is disabled.
+     */
+    public static RevisionStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * The persisted tag of the target, as long as the target is warming up.
+     *
+     * @param target
+     * @return DockerTag or null when the target must be fetched.
+     */
+    public DockerTag getWarm(final PollTarget target) {
+        Revision revision = this.warm.get(target.getStoreKey());
+        if (revision == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= revision.until) {
+            this.warm.remove(target.getStoreKey(), revision);
+            return null;
+        }
+        return revision.tag;
+    }
+
+    /**
+     * Persist the tag of the target when it changed.
+     *
+     * @param target
+     * @param tag
+     */
+    public void put(final PollTarget target, final DockerTag tag) {
+        if (tag == null || tag.getHash() == null) {
+            return;
+        }
+        this.warm.remove(target.getStoreKey());
+        Revision known = this.revisions.get(target.getStoreKey());
+        if (known != null && known.tag.getTag().equals(tag.getTag())
+                && known.tag.getHash().equals(tag.getHash())) {
+            return;
+        }
+        Revision revision = new Revision(tag, System.currentTimeMillis(), 0);
+        this.revisions.put(target.getStoreKey(), revision);
+        this.append(revisionLine(target.getStoreKey(), revision));
+    }
+
+    /**
+     * Persist the validators of a response.
+     *
+     * @param key
+     * @param entry The entry, or null when the response had no validators.
+     */
+    public void putValidator(final String key, final ValidatorCache.Entry entry) {
+        if (entry == null) {
+            return;
+        }
+        String line = validatorLine(key, entry, System.currentTimeMillis());
+        if (line == null) {
+            return;
+        }
+        synchronized (this) {
+            String known = this.validators.get(key);
+            // the fetch time alone is no reason to write the line again
+            if (known != null && stripFetched(known).equals(stripFetched(line))) {
+                return;
+            }
+            this.validators.put(key, line);
+        }
+        this.append(line);
+    }
+
+    private void load(final ValidatorCache validatorCache) throws IOException {
+        File directory = this.file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        if (!this.file.exists()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Random random = new Random();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 5 && "R".equals(fields[0])) {
+                    long fetched = parseLong(fields[4]);
+                    if (now - fetched < this.maxAge) {
+                        Revision revision = new Revision(new DockerTag(fields[2], fields[3]), fetched,
+                                now + (long) (random.nextDouble() * this.warmup));
+                        this.revisions.put(fields[1], revision);
+                        this.warm.put(fields[1], revision);
+                    }
+                } else if (fields.length == 7 && "V".equals(fields[0])) {
+                    if (now - parseLong(fields[6]) < this.maxAge) {
+                        DockerTag tag = fields[4].isEmpty() ? null : new DockerTag(fields[4], emptyToNull(fields[5]));
+                        validatorCache.put(fields[1], new ValidatorCache.Entry(
+                                emptyToNull(fields[2]), emptyToNull(fields[3]), tag));
+                        this.validators.put(fields[1], line);
+                    }
+                }
+            }
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Rewrite the file with the live lines and open it for appending.
+     */
+    private synchronized void compact() throws IOException {
+        IOUtils.closeQuietly(this.writer);
+        this.writer = null;
+
+        File temporary = new File(this.file.getPath() + ".tmp");
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporary), UTF8));
+        int count = 0;
+        try {
+            for (Map.Entry<String, Revision> revision : this.revisions.entrySet()) {
+                String line = revisionLine(revision.getKey(), revision.getValue());
+                if (line != null) {
+                    out.write(line);
+                    out.write('\n');
+                    count++;
+                }
+            }
+            for (String line : this.validators.values()) {
+                out.write(line);
+                out.write('\n');
+                count++;
+            }
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(this.file) && !(this.file.delete() && temporary.renameTo(this.file))) {
+            throw new IOException("Cannot replace " + this.file);
+        }
+
+        this.lines = count;
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true), UTF8));
+    }
+
+    private synchronized void append(final String line) {
+        if (this.writer == null || line == null) {
+            return;
+        }
+        try {
+            this.writer.write(line);
+            this.writer.write('\n');
+            this.writer.flush();
+            // the file only grows, rewrite it when most of it is outdated
+            if (++this.lines > 2 * (this.revisions.size() + this.validators.size()) + 1000) {
+                this.compact();
+            }
+        } catch (IOException e) {
+            LOG.warn("Cannot write the revision cache " + this.file + ": " + e.getMessage());
+            IOUtils.closeQuietly(this.writer);
+            this.writer = null;
+        }
+    }
+
+    private synchronized void close() {
+        IOUtils.closeQuietly(this.writer);
+        this.writer = null;
+    }
+
+    private static String revisionLine(final String key, final Revision revision) {
+        return line("R", key, revision.tag.getTag(), revision.tag.getHash(), String.valueOf(revision.fetched));
+    }
+
+    private static String validatorLine(final String key, final ValidatorCache.Entry entry, final long fetched) {
+        DockerTag tag = entry.getTag();
+        return line("V", key, entry.getEtag(), entry.getLastModified(),
+                tag == null ? null : tag.getTag(), tag == null ? null : tag.getHash(),
+                String.valueOf(fetched));
+    }
+
+    /**
+     * @return The line, or null when a value cannot be written.
+     */
+    private static String line(final String... fields) {
+        StringBuilder line = new StringBuilder(128);
+        for (int i = 0; i < fields.length; i++) {
+            String field = fields[i] == null ? "" : fields[i];
+            if (field.indexOf('\t') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                return null;
+            }
+            if (i > 0) {
+                line.append('\t');
+            }
+            line.append(field);
+        }
+        return line.toString();
+    }
+
+    private static String stripFetched(final String line) {
+        return line.substring(0, line.lastIndexOf('\t'));
+    }
+
+    private static String emptyToNull(final String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static long parseLong(final String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A persisted tag.
+     */
+    private static class Revision {
+
+        final private DockerTag tag;
+
+        final private long fetched;
+
+        /**
+         * A loaded tag answers the polls until this moment.
+         */
+        final private long until;
+
+        Revision(final DockerTag tag, final long fetched, final long until) {
+            this.tag = tag;
+            this.fetched = fetched;
+            this.until = until;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What changed in the tags of a repository between two snapshots: the tags
+ * which were added, removed or point to another digest now.
+ *
+ * @author Jan De Cooman
+ */
+public class TagDelta {
+
+    final public static TagDelta EMPTY = new TagDelta(
+            Collections.<String, String>emptyMap(), Collections.<String>emptySet(),
+            Collections.<String, String>emptyMap());
+
+    final private Map<String, String> added;
+
+    final private Set<String> removed;
+
+    final private Map<String, String> repointed;
+
+    private TagDelta(final Map<String, String> added, final Set<String> removed,
+            final Map<String, String> repointed) {
+        this.added = added;
+        this.removed = removed;
+        this.repointed = repointed;
+    }
+
+    /**
+     * @param before
+     * @param after
+     * @return The changes from before to after.
+     */
+    public static TagDelta between(final TagSnapshot before, final TagSnapshot after) {
+        if (before.getDigests() == after.getDigests()) {
+            return EMPTY;
+        }
+        Map<String, String> added = new HashMap<>();
+        Set<String> removed = new HashSet<>();
+        Map<String, String> repointed = new HashMap<>();
+
+        Map<String, String> previous = before.getDigests();
+        for (Map.Entry<String, String> tag : after.getDigests().entrySet()) {
+            if (!previous.containsKey(tag.getKey())) {
+                added.put(tag.getKey(), tag.getValue());
+            } else {
+                String digest = previous.get(tag.getKey());
+                // a digest seen for the first time is no change of the tag
+                if (digest != null && tag.getValue() != null && !digest.equals(tag.getValue())) {
+                    repointed.put(tag.getKey(), tag.getValue());
+                }
+            }
+        }
+        for (String tag : previous.keySet()) {
+            if (!after.getDigests().containsKey(tag)) {
+                removed.add(tag);
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty() && repointed.isEmpty()) {
+            return EMPTY;
+        }
+        return new TagDelta(Collections.unmodifiableMap(added), Collections.unmodifiableSet(removed),
+                Collections.unmodifiableMap(repointed));
+    }
+
+    public boolean isEmpty() {
+        return this == EMPTY
+                || (this.added.isEmpty() && this.removed.isEmpty() && this.repointed.isEmpty());
+    }
+
+    /**
+     * @param tag
+     * @return true when the tag was added, removed or re-pointed.
+     */
+    public boolean affects(final String tag) {
+        return this.added.containsKey(tag) || this.removed.contains(tag)
+                || this.repointed.containsKey(tag);
+    }
+
+    /**
+     * @return The new tags and their digests. The digest is null when the
+     * registry only listed the name.
+     */
+    public Map<String, String> getAdded() {
+        return this.added;
+    }
+
+    public Set<String> getRemoved() {
+        return this.removed;
+    }
+
+    /**
+     * @return The re-pointed tags and their new digests.
+     */
+    public Map<String, String> getRepointed() {
+        return this.repointed;
+    }
+
+    @Override
+    public String toString() {
+        return "added=" + this.added.keySet() + " removed=" + this.removed
+                + " repointed=" + this.repointed.keySet();
+    }
+}
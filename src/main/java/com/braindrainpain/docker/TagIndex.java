@@ -0,0 +1,133 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The tags of one repository, sorted by version.
+ *
+ * The index follows the tag lists of the repository. Only the tags which were
+ * added since the last list are parsed and sorted in, so a large repository
+ * is not sorted again on every poll. The highest match of a pattern is kept
+ * until the tags change.
+ *
+ * The index is updated by one thread at a time, the lookups do not lock.
+ *
+ * @author Jan De Cooman
+ */
+public class TagIndex {
+
+    /**
+     * Marks a pattern without a match in the resolved patterns.
+     */
+    final private static String NONE = "";
+
+    final private ConcurrentSkipListSet<TagVersion> sorted = new ConcurrentSkipListSet<>();
+
+    final private ConcurrentMap<String, TagVersion> known = new ConcurrentHashMap<>();
+
+    /**
+     * Replaced when the tags change, so a lookup which ran during an update
+     * does not keep its result.
+     */
+    private volatile ConcurrentMap<String, String> resolved = new ConcurrentHashMap<>();
+
+    private volatile Map<String, String> tags;
+
+    /**
+     * Bring the index up to date with the list.
+     *
+     * @param list
+     */
+    public void update(final TagList list) {
+        Map<String, String> latest = list.getTags();
+        if (latest == this.tags) {
+            return;
+        }
+        synchronized (this) {
+            if (latest == this.tags) {
+                return;
+            }
+            boolean changed = false;
+            for (String name : latest.keySet()) {
+                if (!this.known.containsKey(name)) {
+                    TagVersion version = TagVersion.parse(name);
+                    this.known.put(name, version);
+                    this.sorted.add(version);
+                    changed = true;
+                }
+            }
+            if (this.known.size() != latest.size()) {
+                Iterator<Map.Entry<String, TagVersion>> entries = this.known.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<String, TagVersion> entry = entries.next();
+                    if (!latest.containsKey(entry.getKey())) {
+                        this.sorted.remove(entry.getValue());
+                        entries.remove();
+                    }
+                }
+                changed = true;
+            }
+            if (changed) {
+                this.resolved = new ConcurrentHashMap<>();
+            }
+            this.tags = latest;
+        }
+    }
+
+    /**
+     * @param matcher
+     * @return The name of the highest matching tag, or null.
+     */
+    public String resolve(final TagMatcher matcher) {
+        ConcurrentMap<String, String> current = this.resolved;
+        String result = current.get(matcher.getPattern());
+        if (result == null) {
+            result = this.highest(matcher);
+            current.put(matcher.getPattern(), result == null ? NONE : result);
+        }
+        return NONE.equals(result) ? null : result;
+    }
+
+    private String highest(final TagMatcher matcher) {
+        for (TagVersion tag : this.sorted.descendingSet()) {
+            if (matcher.isVersionsOnly() && !tag.isVersion()) {
+                break;
+            }
+            if (matcher.matches(tag)) {
+                return tag.getName();
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return this.known.size();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.Collections;
+import java.util.Map;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+
+/**
+ * An immutable snapshot of the tag list of one repository, together with the
+ * validators of the response it was read from.
+ *
+ * @author Jan De Cooman
+ */
+public class TagList {
+
+    final private Map<String, String> tags;
+
+    final private String etag;
+
+    final private String lastModified;
+
+    final private long fetched;
+
+    public TagList(final Map<String, String> tags, final String etag,
+            final String lastModified, final long fetched) {
+        this.tags = Collections.unmodifiableMap(tags);
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.fetched = fetched;
+    }
+
+    private TagList(final TagList list, final long fetched) {
+        this.tags = list.tags;
+        this.etag = list.etag;
+        this.lastModified = list.lastModified;
+        this.fetched = fetched;
+    }
+
+    /**
+     * Create the list from a response.
+     *
+     * @param tags The tags and their hashes. The hashes are null for V2.
+     * @param response The executed request.
+     * @return TagList
+     */
+    public static TagList of(final Map<String, String> tags, final HttpMethod response) {
+        Header etag = response.getResponseHeader("ETag");
+        Header lastModified = response.getResponseHeader("Last-Modified");
+        return new TagList(tags,
+                etag == null ? null : etag.getValue(),
+                lastModified == null ? null : lastModified.getValue(),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * The registry confirmed the list did not change.
+     *
+     * @return A copy of the list with a new fetch time. It shares the tags
+     * of this list.
+     */
+    public TagList revalidated() {
+        return new TagList(this, System.currentTimeMillis());
+    }
+
+    /**
+     * Make the request for the next version of this list conditional.
+     *
+     * @param request
+     */
+    public void addConditions(final HttpMethod request) {
+        if (this.etag != null) {
+            request.setRequestHeader("If-None-Match", this.etag);
+        }
+        if (this.lastModified != null) {
+            request.setRequestHeader("If-Modified-Since", this.lastModified);
+        }
+    }
+
+    /**
+     * @param tagName
+     * @return The tag or null when the list does not contain it.
+     */
+    public DockerTag get(final String tagName) {
+        if (!this.tags.containsKey(tagName)) {
+            return null;
+        }
+        return new DockerTag(tagName, this.tags.get(tagName));
+    }
+
+    public Map<String, String> getTags() {
+        return this.tags;
+    }
+
+    public String getEtag() {
+        return this.etag;
+    }
+
+    public String getLastModified() {
+        return this.lastModified;
+    }
+
+    public long getFetched() {
+        return this.fetched;
+    }
+
+    public int size() {
+        return this.tags.size();
+    }
+}
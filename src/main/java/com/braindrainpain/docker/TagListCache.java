@@ -0,0 +1,153 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Plugin-wide cache of the tag lists, keyed by registry and repository.
+ *
+ * Packages which poll the same repository with a different tag share the
+ * list until it expires. When the list must be fetched, the concurrent polls
+ * for the same repository wait for one single request and share its result.
+ * The cache is bounded, the least recently used lists are evicted first.
+ *
+ * @author Jan De Cooman
+ */
+public class TagListCache {
+
+    /**
+     * Fetches a tag list.
+     */
+    public interface Loader {
+
+        /**
+         * @param previous The expired list, or null. Can be used to make the
+         * request conditional.
+         * @return TagList
+         */
+        TagList load(TagList previous);
+    }
+
+    final private long ttl;
+
+    final private Map<String, TagList> lists;
+
+    final private ConcurrentMap<String, FutureTask<TagList>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl Time in milliseconds a list is shared. 0 disables the cache.
+     * @param maxSize
+     */
+    public TagListCache(final long ttl, final int maxSize) {
+        this.ttl = ttl;
+        this.lists = Collections.synchronizedMap(new LinkedHashMap<String, TagList>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, TagList> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    public static String key(final String registry, final String repository) {
+        return registry + "|" + repository;
+    }
+
+    public boolean isEnabled() {
+        return this.ttl > 0;
+    }
+
+    /**
+     * Get the list from the cache or load it. Only one load per key runs at
+     * the same time.
+     *
+     * @param key
+     * @param loader
+     * @return TagList
+     */
+    public TagList get(final String key, final Loader loader) {
+        final TagList cached = this.lists.get(key);
+        if (cached != null && System.currentTimeMillis() - cached.getFetched() < this.ttl) {
+            return cached;
+        }
+
+        FutureTask<TagList> task = new FutureTask<>(new Callable<TagList>() {
+            @Override
+            public TagList call() {
+                TagList list = loader.load(cached);
+                lists.put(key, list);
+                return list;
+            }
+        });
+
+        FutureTask<TagList> running = this.inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                this.inFlight.remove(key, task);
+            }
+        }
+        return this.await(running);
+    }
+
+    /**
+     * Drop the lists of a repository on every registry.
+     *
+     * @param repository
+     */
+    public void invalidate(final String repository) {
+        synchronized (this.lists) {
+            Iterator<String> keys = this.lists.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().endsWith("|" + repository)) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    private TagList await(final FutureTask<TagList> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the tags", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
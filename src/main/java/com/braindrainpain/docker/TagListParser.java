@@ -0,0 +1,139 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming parser for the tag lists.
+ *
+ * The list is read token by token and every tag is handed to a visitor. The
+ * visitor can stop the reading, e.g. as soon as the tag it looks for is found.
+ * No tree is built, so the memory used by the parser stays the same whatever
+ * the number of tags in the repository.
+ *
+ * <ul>
+ * <li>V1: <code>{"latest": "hash", "1.0": "hash"}</code></li>
+ * <li>V2: <code>{"name": "repository", "tags": ["latest", "1.0"]}</code></li>
+ * </ul>
+ *
+ * @author Jan De Cooman
+ */
+public class TagListParser {
+
+    /**
+     * Receives the tags in the order of the list.
+     */
+    public interface TagVisitor {
+
+        /**
+         * @param tag The name of the tag.
+         * @param hash The hash of the tag, null for a V2 list.
+         * @return false to stop the parsing.
+         */
+        boolean visit(String tag, String hash);
+    }
+
+    final private DockerAPI api;
+
+    public TagListParser(final DockerAPI api) {
+        this.api = api;
+    }
+
+    /**
+     * Find a tag in the list.
+     *
+     * @param reader The tag list.
+     * @param tagName The tag to look for.
+     * @return The tag or null when the list does not contain it. A V2 list
+     * has no hashes, the tag has no hash then.
+     * @throws IOException
+     */
+    public DockerTag find(final Reader reader, final String tagName) throws IOException {
+        final DockerTag[] result = new DockerTag[1];
+        this.parse(reader, new TagVisitor() {
+            @Override
+            public boolean visit(final String tag, final String hash) {
+                if (tagName.equals(tag)) {
+                    result[0] = new DockerTag(tag, hash);
+                    return false;
+                }
+                return true;
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * Visit the tags of the list.
+     *
+     * @param reader The tag list.
+     * @param visitor
+     * @throws IOException
+     */
+    public void parse(final Reader reader, final TagVisitor visitor) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        if (json.peek() != JsonToken.BEGIN_OBJECT) {
+            return;
+        }
+        json.beginObject();
+        if (this.api == DockerAPI.V1) {
+            this.parseV1(json, visitor);
+        } else {
+            this.parseV2(json, visitor);
+        }
+    }
+
+    private void parseV1(final JsonReader json, final TagVisitor visitor) throws IOException {
+        while (json.hasNext()) {
+            String tag = json.nextName();
+            if (json.peek() != JsonToken.STRING) {
+                json.skipValue();
+            } else if (!visitor.visit(tag, json.nextString())) {
+                return;
+            }
+        }
+    }
+
+    private void parseV2(final JsonReader json, final TagVisitor visitor) throws IOException {
+        while (json.hasNext()) {
+            if (!"tags".equals(json.nextName()) || json.peek() != JsonToken.BEGIN_ARRAY) {
+                json.skipValue();
+                continue;
+            }
+            json.beginArray();
+            while (json.hasNext()) {
+                if (json.peek() != JsonToken.STRING) {
+                    json.skipValue();
+                } else if (!visitor.visit(json.nextString(), null)) {
+                    return;
+                }
+            }
+            json.endArray();
+        }
+    }
+}
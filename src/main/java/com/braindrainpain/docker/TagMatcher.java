@@ -0,0 +1,284 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Selects the tags of a package when the configured tag is a pattern.
+ *
+ * A tag name only contains letters, digits, '_', '.' and '-'. Anything else
+ * makes it a pattern:
+ *
+ * <ul>
+ * <li>/regex/ a regular expression, which must match the whole tag</li>
+ * <li>a glob with '*' and '?', like '1.4.*'</li>
+ * <li>a version range, like '&gt;=2.0 &lt;3', '~1.4', '^2' or
+ * '=1.x || &gt;=3'. Only released versions match a range.</li>
+ * </ul>
+ *
+ * The poller takes the highest matching tag in the order of
+ * {@link TagVersion}. The matcher is compiled once per package.
+ *
+ * @author Jan De Cooman
+ */
+public abstract class TagMatcher {
+
+    final private static Pattern TAG = Pattern.compile("[A-Za-z0-9_.-]+");
+
+    /**
+     * A range starts with an operator or has more than one comparator.
+     */
+    final private static Pattern RANGE = Pattern.compile("[<>=~^].*|.*\\|\\|.*|.*\\s.*");
+
+    final private String pattern;
+
+    protected TagMatcher(final String pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * @param tag The configured tag.
+     * @return false when the tag is a plain tag name.
+     */
+    public static boolean isPattern(final String tag) {
+        return !TAG.matcher(tag).matches();
+    }
+
+    /**
+     * @param pattern
+     * @return TagMatcher
+     * @throws IllegalArgumentException when the pattern is invalid.
+     */
+    public static TagMatcher compile(final String pattern) {
+        String trimmed = pattern.trim();
+        if (trimmed.length() > 1 && trimmed.startsWith("/") && trimmed.endsWith("/")) {
+            try {
+                return new RegexMatcher(pattern, Pattern.compile(trimmed.substring(1, trimmed.length() - 1)));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid regular expression: " + e.getDescription());
+            }
+        }
+        if (RANGE.matcher(trimmed).matches()) {
+            return new RangeMatcher(pattern);
+        }
+        return new RegexMatcher(pattern, glob(trimmed));
+    }
+
+    private static Pattern glob(final String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '-') {
+                regex.append(c);
+            } else if (c == '.') {
+                regex.append("\\.");
+            } else {
+                throw new IllegalArgumentException("Invalid character in tag pattern: '" + c + "'");
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * @param tag
+     * @return true when the tag is selected.
+     */
+    public abstract boolean matches(TagVersion tag);
+
+    /**
+     * @return true when only versions can match. The highest match is then
+     * found before the tags which are no version.
+     */
+    public boolean isVersionsOnly() {
+        return false;
+    }
+
+    public String getPattern() {
+        return this.pattern;
+    }
+
+    @Override
+    public String toString() {
+        return this.pattern;
+    }
+
+    /**
+     * Globs and regular expressions.
+     */
+    private static class RegexMatcher extends TagMatcher {
+
+        final private Pattern regex;
+
+        RegexMatcher(final String pattern, final Pattern regex) {
+            super(pattern);
+            this.regex = regex;
+        }
+
+        @Override
+        public boolean matches(final TagVersion tag) {
+            return this.regex.matcher(tag.getName()).matches();
+        }
+    }
+
+    /**
+     * Version ranges. The alternatives are separated by '||', each one is a
+     * list of comparators which must all match.
+     */
+    private static class RangeMatcher extends TagMatcher {
+
+        final private List<List<Bound>> alternatives = new ArrayList<>();
+
+        RangeMatcher(final String pattern) {
+            super(pattern);
+            for (String alternative : pattern.split("\\|\\|")) {
+                List<Bound> bounds = new ArrayList<>();
+                for (String comparator : alternative.trim().split("\\s+")) {
+                    if (!comparator.isEmpty()) {
+                        Bound.parse(comparator, bounds);
+                    }
+                }
+                if (bounds.isEmpty()) {
+                    throw new IllegalArgumentException("Empty version range in '" + pattern + "'");
+                }
+                this.alternatives.add(bounds);
+            }
+        }
+
+        @Override
+        public boolean matches(final TagVersion tag) {
+            if (!tag.isVersion() || tag.isPreRelease()) {
+                return false;
+            }
+            for (List<Bound> bounds : this.alternatives) {
+                boolean matches = true;
+                for (Bound bound : bounds) {
+                    if (!bound.matches(tag)) {
+                        matches = false;
+                        break;
+                    }
+                }
+                if (matches) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isVersionsOnly() {
+            return true;
+        }
+    }
+
+    /**
+     * One comparator of a range. A partial version compares on its own
+     * numbers only where that is what it means: '&lt;=1.4' includes 1.4.2,
+     * '&lt;3' does not include 3.1.
+     */
+    private static class Bound {
+
+        final private String operator;
+
+        final private TagVersion version;
+
+        /**
+         * The count of the numbers compared by '=', '&gt;' and '&lt;='.
+         */
+        final private int prefix;
+
+        Bound(final String operator, final TagVersion version, final int prefix) {
+            this.operator = operator;
+            this.version = version;
+            this.prefix = prefix;
+        }
+
+        static void parse(final String comparator, final List<Bound> bounds) {
+            String operator = "=";
+            for (String candidate : new String[]{">=", "<=", ">", "<", "=", "~", "^"}) {
+                if (comparator.startsWith(candidate)) {
+                    operator = candidate;
+                    break;
+                }
+            }
+            String value = comparator.substring(comparator.startsWith(operator) ? operator.length() : 0);
+
+            // 1.x is the same as =1
+            value = value.replaceAll("(\\.[xX*])+$", "");
+            TagVersion version = TagVersion.parse(value);
+            if (!version.isVersion() || version.isPreRelease()) {
+                throw new IllegalArgumentException("Not a version: '" + value + "'");
+            }
+
+            int precision = version.getPrecision();
+            switch (operator) {
+                case "~":
+                    bounds.add(new Bound(">=", version, precision));
+                    bounds.add(new Bound("=", version, Math.min(precision, 2)));
+                    break;
+                case "^":
+                    int significant = 0;
+                    while (significant < precision - 1 && version.getNumber(significant) == 0) {
+                        significant++;
+                    }
+                    bounds.add(new Bound(">=", version, precision));
+                    bounds.add(new Bound("=", version, significant + 1));
+                    break;
+                default:
+                    bounds.add(new Bound(operator, version, precision));
+            }
+        }
+
+        boolean matches(final TagVersion tag) {
+            switch (this.operator) {
+                case ">=":
+                    return tag.compareVersion(this.version) >= 0;
+                case "<":
+                    return tag.compareVersion(this.version) < 0;
+                case ">":
+                    return this.comparePrefix(tag) > 0;
+                case "<=":
+                    return this.comparePrefix(tag) <= 0;
+                default:
+                    return this.comparePrefix(tag) == 0;
+            }
+        }
+
+        private int comparePrefix(final TagVersion tag) {
+            for (int i = 0; i < this.prefix; i++) {
+                int result = Long.compare(tag.getNumber(i), this.version.getNumber(i));
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        }
+    }
+}
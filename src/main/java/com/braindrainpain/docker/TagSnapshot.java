@@ -0,0 +1,132 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The tags of a repository and their digests, as far as the plugin knows
+ * them. The snapshot is immutable, an update returns a new snapshot, or the
+ * same one when nothing changed.
+ *
+ * A V1 list holds the digests of all the tags. A V2 list only holds the
+ * names, the digests are added as the manifests are fetched.
+ *
+ * @author Jan De Cooman
+ */
+public class TagSnapshot {
+
+    final public static TagSnapshot EMPTY = new TagSnapshot(
+            Collections.<String, String>emptyMap(), null);
+
+    final private Map<String, String> digests;
+
+    /**
+     * The tags of the list this snapshot was built from. A revalidated list
+     * shares them, so it is recognized without comparing the tags.
+     */
+    final private Map<String, String> listed;
+
+    private TagSnapshot(final Map<String, String> digests, final Map<String, String> listed) {
+        this.digests = digests;
+        this.listed = listed;
+    }
+
+    /**
+     * Apply a complete tag list. The tags which are not listed are removed.
+     *
+     * @param list
+     * @return The new snapshot, or this one when nothing changed.
+     */
+    public TagSnapshot withList(final TagList list) {
+        Map<String, String> tags = list.getTags();
+        if (tags == this.listed) {
+            return this;
+        }
+        if (!this.isChangedBy(tags)) {
+            return new TagSnapshot(this.digests, tags);
+        }
+        Map<String, String> digests = new HashMap<>(tags.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            // V2 does not list the digests, keep the ones from the manifests
+            digests.put(tag.getKey(), tag.getValue() == null ? this.digests.get(tag.getKey()) : tag.getValue());
+        }
+        return new TagSnapshot(Collections.unmodifiableMap(digests), tags);
+    }
+
+    /**
+     * @return true when the list adds or removes a tag, or lists another
+     * digest. Nothing is copied while the list matches.
+     */
+    private boolean isChangedBy(final Map<String, String> tags) {
+        if (tags.size() != this.digests.size()) {
+            return true;
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!this.digests.containsKey(tag.getKey())
+                    || (tag.getValue() != null && !tag.getValue().equals(this.digests.get(tag.getKey())))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply the digest of one tag.
+     *
+     * @param tag
+     * @param digest
+     * @return The new snapshot, or this one when the digest is known.
+     */
+    public TagSnapshot withTag(final String tag, final String digest) {
+        if (digest == null || digest.equals(this.digests.get(tag))) {
+            return this;
+        }
+        Map<String, String> digests = new HashMap<>(this.digests);
+        digests.put(tag, digest);
+        return new TagSnapshot(Collections.unmodifiableMap(digests), this.listed);
+    }
+
+    /**
+     * @param tag
+     * @return The digest, or null when the tag or its digest is not known.
+     */
+    public String getDigest(final String tag) {
+        return this.digests.get(tag);
+    }
+
+    public boolean contains(final String tag) {
+        return this.digests.containsKey(tag);
+    }
+
+    public Map<String, String> getDigests() {
+        return this.digests;
+    }
+
+    public int size() {
+        return this.digests.size();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A tag name parsed as a version.
+ *
+ * Tags like '1.4.2', 'v2.0' or '2.0.0-rc.1' are versions. They are ordered
+ * by their numbers, a release is higher than its pre-releases. Versions are
+ * higher than the tags which are no version, like 'latest'. Those are
+ * ordered by name.
+ *
+ * @author Jan De Cooman
+ */
+public class TagVersion implements Comparable<TagVersion> {
+
+    final private static Pattern VERSION
+            = Pattern.compile("v?(\\d{1,18}(?:\\.\\d{1,18})*)(?:-([0-9A-Za-z.-]+))?");
+
+    final private String name;
+
+    final private long[] numbers;
+
+    final private String preRelease;
+
+    private TagVersion(final String name, final long[] numbers, final String preRelease) {
+        this.name = name;
+        this.numbers = numbers;
+        this.preRelease = preRelease;
+    }
+
+    /**
+     * @param name
+     * @return The version of the tag. When the tag is no version, only the
+     * name is kept.
+     */
+    public static TagVersion parse(final String name) {
+        Matcher matcher = VERSION.matcher(name);
+        if (!matcher.matches()) {
+            return new TagVersion(name, null, null);
+        }
+        String[] parts = matcher.group(1).split("\\.");
+        long[] numbers = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            numbers[i] = Long.parseLong(parts[i]);
+        }
+        return new TagVersion(name, numbers, matcher.group(2));
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public boolean isVersion() {
+        return this.numbers != null;
+    }
+
+    public boolean isPreRelease() {
+        return this.preRelease != null;
+    }
+
+    /**
+     * @param index
+     * @return The number at the index. Missing numbers are 0.
+     */
+    public long getNumber(final int index) {
+        return index < this.numbers.length ? this.numbers[index] : 0;
+    }
+
+    /**
+     * @return The count of the numbers, 1.4 has 2.
+     */
+    public int getPrecision() {
+        return this.numbers.length;
+    }
+
+    /**
+     * Compare the versions only. Both tags must be versions.
+     *
+     * @param other
+     * @return like compareTo, '1.4' and 'v1.4.0' are the same.
+     */
+    public int compareVersion(final TagVersion other) {
+        int length = Math.max(this.numbers.length, other.numbers.length);
+        for (int i = 0; i < length; i++) {
+            int result = Long.compare(this.getNumber(i), other.getNumber(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        if (this.preRelease == null || other.preRelease == null) {
+            // the release is higher than its pre-releases
+            return this.preRelease == null ? (other.preRelease == null ? 0 : 1) : -1;
+        }
+        return comparePreRelease(this.preRelease, other.preRelease);
+    }
+
+    /**
+     * Numeric identifiers are compared as numbers and are lower than the
+     * others.
+     */
+    private static int comparePreRelease(final String left, final String right) {
+        String[] lefts = left.split("\\.");
+        String[] rights = right.split("\\.");
+        for (int i = 0; i < Math.min(lefts.length, rights.length); i++) {
+            boolean leftNumeric = isNumeric(lefts[i]);
+            boolean rightNumeric = isNumeric(rights[i]);
+            int result;
+            if (leftNumeric && rightNumeric) {
+                result = Long.compare(Long.parseLong(lefts[i]), Long.parseLong(rights[i]));
+            } else if (leftNumeric || rightNumeric) {
+                result = leftNumeric ? -1 : 1;
+            } else {
+                result = lefts[i].compareTo(rights[i]);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return Integer.compare(lefts.length, rights.length);
+    }
+
+    private static boolean isNumeric(final String identifier) {
+        if (identifier.isEmpty() || identifier.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < identifier.length(); i++) {
+            if (!Character.isDigit(identifier.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int compareTo(final TagVersion other) {
+        if (this.isVersion() != other.isVersion()) {
+            return this.isVersion() ? 1 : -1;
+        }
+        if (this.isVersion()) {
+            int result = this.compareVersion(other);
+            if (result != 0) {
+                return result;
+            }
+        }
+        // the same version can be tagged in different ways
+        return this.name.compareTo(other.name);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof TagVersion && this.name.equals(((TagVersion) other).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+
+/**
+ * Measures the time spent to open the connections.
+ *
+ * The connection is opened by the thread which executes the request. The
+ * time is kept for that thread until the request takes it, so no state is
+ * shared between the threads.
+ *
+ * @author Jan De Cooman
+ */
+public class TimedSocketFactory implements ProtocolSocketFactory {
+
+    final private static ThreadLocal<long[]> connectTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    final private ProtocolSocketFactory factory;
+
+    TimedSocketFactory(final ProtocolSocketFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Time the sockets of the http and https protocols.
+     */
+    public static void install() {
+        install("http");
+        install("https");
+    }
+
+    private static void install(final String scheme) {
+        Protocol protocol = Protocol.getProtocol(scheme);
+        ProtocolSocketFactory factory = protocol.getSocketFactory();
+        if (factory instanceof TimedSocketFactory) {
+            return;
+        }
+        TimedSocketFactory timed = factory instanceof SecureProtocolSocketFactory
+                ? new Secure((SecureProtocolSocketFactory) factory)
+                : new TimedSocketFactory(factory);
+        Protocol.registerProtocol(scheme, new Protocol(scheme, (ProtocolSocketFactory) timed,
+                protocol.getDefaultPort()));
+    }
+
+    /**
+     * Restore the default protocols.
+     */
+    public static void uninstall() {
+        Protocol.unregisterProtocol("http");
+        Protocol.unregisterProtocol("https");
+    }
+
+    /**
+     * @return The time spent to connect by this thread since the last call,
+     * in nanoseconds. 0 when the connection came from the pool.
+     */
+    public static long take() {
+        long[] time = connectTime.get();
+        long result = time[0];
+        time[0] = 0;
+        return result;
+    }
+
+    protected Socket timed(final long start, final Socket socket) {
+        connectTime.get()[0] += System.nanoTime() - start;
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port, final InetAddress localAddress,
+            final int localPort) throws IOException {
+        long start = System.nanoTime();
+        return this.timed(start, this.factory.createSocket(host, port, localAddress, localPort));
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port, final InetAddress localAddress,
+            final int localPort, final HttpConnectionParams params) throws IOException {
+        long start = System.nanoTime();
+        return this.timed(start, this.factory.createSocket(host, port, localAddress, localPort, params));
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port) throws IOException {
+        long start = System.nanoTime();
+        return this.timed(start, this.factory.createSocket(host, port));
+    }
+
+    /**
+     * Keeps the protocol secure, so proxies are tunnelled.
+     */
+    private static class Secure extends TimedSocketFactory implements SecureProtocolSocketFactory {
+
+        final private SecureProtocolSocketFactory secure;
+
+        Secure(final SecureProtocolSocketFactory factory) {
+            super(factory);
+            this.secure = factory;
+        }
+
+        @Override
+        public Socket createSocket(final Socket socket, final String host, final int port,
+                final boolean autoClose) throws IOException {
+            long start = System.nanoTime();
+            return this.timed(start, this.secure.createSocket(socket, host, port, autoClose));
+        }
+    }
+}
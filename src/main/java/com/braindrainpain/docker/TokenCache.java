@@ -0,0 +1,282 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+/**
+ * Bearer tokens of the V2 registries, keyed by realm, service, scope and
+ * credentials. A token fetched with a password is not used for a package
+ * with another password, see {@link Credentials#getScope()}.
+ *
+ * A token is fetched once and used until shortly before it expires. The
+ * tokens which are in use are refreshed in the background ahead of their
+ * expiry, so the polls find a valid token and need a single request. A
+ * token which was not used during its lifetime is dropped instead. The
+ * concurrent requests for the same missing token wait for one fetch.
+ *
+ * @author Jan De Cooman
+ */
+public class TokenCache extends HttpSupport {
+
+    final private static Logger LOG = Logger.getLoggerFor(TokenCache.class);
+
+    /**
+     * The lifetime of a token which does not tell, as in the token spec.
+     */
+    final private static int DEFAULT_EXPIRES_IN = 60;
+
+    /**
+     * A token is not used anymore this close to its expiry.
+     */
+    final private static long MARGIN = 5 * 1000;
+
+    final private static TokenCache instance = new TokenCache();
+
+    final private ConcurrentMap<String, Token> tokens = new ConcurrentHashMap<>();
+
+    final private ConcurrentMap<String, FutureTask<Token>> inFlight = new ConcurrentHashMap<>();
+
+    private ScheduledThreadPoolExecutor refresher;
+
+    private TokenCache() {
+    }
+
+    public static TokenCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Stop the background refresh and forget the tokens.
+     */
+    public static void shutdown() {
+        synchronized (instance) {
+            if (instance.refresher != null) {
+                instance.refresher.shutdownNow();
+                instance.refresher = null;
+            }
+        }
+        instance.tokens.clear();
+    }
+
+    /**
+     * @param challenge
+     * @param credentials
+     * @return A valid token for the challenge.
+     * @throws IOException when the token cannot be fetched.
+     */
+    public String getToken(final Challenge challenge, final Credentials credentials) throws IOException {
+        String key = key(challenge, credentials);
+        Token token = this.tokens.get(key);
+        if (token == null || System.currentTimeMillis() >= token.expires - MARGIN) {
+            token = this.fetch(key, challenge, credentials);
+        }
+        token.lastUsed = System.currentTimeMillis();
+        return token.value;
+    }
+
+    /**
+     * Forget a token the registry rejected.
+     *
+     * @param challenge
+     * @param credentials
+     */
+    public void invalidate(final Challenge challenge, final Credentials credentials) {
+        this.tokens.remove(key(challenge, credentials));
+    }
+
+    static String key(final Challenge challenge, final Credentials credentials) {
+        return challenge.getKey() + "|" + credentials.getScope();
+    }
+
+    private Token fetch(final String key, final Challenge challenge, final Credentials credentials)
+            throws IOException {
+        FutureTask<Token> task = new FutureTask<>(new Callable<Token>() {
+            @Override
+            public Token call() throws IOException {
+                Token token = requestToken(challenge, credentials);
+                tokens.put(key, token);
+                scheduleRefresh(key, challenge, credentials, token);
+                return token;
+            }
+        });
+        FutureTask<Token> running = this.inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                this.inFlight.remove(key, task);
+            }
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the token", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Refresh the token ahead of its expiry when it is still in use.
+     */
+    private void scheduleRefresh(final String key, final Challenge challenge,
+            final Credentials credentials, final Token token) {
+        long lifetime = token.expires - token.fetched;
+        long delay = Math.max(lifetime - Math.max(lifetime / 5, 2 * MARGIN), 1000);
+        this.getRefresher().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (tokens.get(key) != token) {
+                    return;
+                }
+                if (token.lastUsed == 0) {
+                    tokens.remove(key, token);
+                    return;
+                }
+                try {
+                    fetch(key, challenge, credentials);
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("Cannot refresh the token for " + challenge + ": " + e.getMessage());
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized ScheduledThreadPoolExecutor getRefresher() {
+        if (this.refresher == null) {
+            this.refresher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "docker-token-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.refresher.setRemoveOnCancelPolicy(true);
+        }
+        return this.refresher;
+    }
+
+    /**
+     * Ask the token server of the realm for a token.
+     */
+    private Token requestToken(final Challenge challenge, final Credentials credentials) throws IOException {
+        StringBuilder url = new StringBuilder(challenge.getRealm());
+        char separator = challenge.getRealm().indexOf('?') < 0 ? '?' : '&';
+        if (challenge.getService() != null) {
+            url.append(separator).append("service=").append(URLEncoder.encode(challenge.getService(), "UTF-8"));
+            separator = '&';
+        }
+        if (challenge.getScope() != null) {
+            url.append(separator).append("scope=").append(URLEncoder.encode(challenge.getScope(), "UTF-8"));
+        }
+
+        GetMethod get = new GetMethod(url.toString());
+        String basic = credentials.getBasic();
+        if (basic != null) {
+            get.setRequestHeader("Authorization", basic);
+        }
+        try {
+            int status = this.execute(get);
+            if (status != HttpStatus.SC_OK) {
+                throw new IOException("The token server answered " + status + " for " + challenge);
+            }
+            InputStream body = this.getBody(get);
+            if (body == null) {
+                throw new IOException("The token server sent no token for " + challenge);
+            }
+            Token token = parse(new JsonReader(new InputStreamReader(body, "UTF-8")));
+            LOG.debug("Fetched a token for " + challenge + " valid for "
+                    + (token.expires - token.fetched) / 1000 + "s");
+            return token;
+        } finally {
+            this.release(get);
+        }
+    }
+
+    private static Token parse(final JsonReader reader) throws IOException {
+        String value = null;
+        int expiresIn = DEFAULT_EXPIRES_IN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (("token".equals(name) || ("access_token".equals(name) && value == null))
+                    && reader.peek() == JsonToken.STRING) {
+                value = reader.nextString();
+            } else if ("expires_in".equals(name) && reader.peek() == JsonToken.NUMBER) {
+                expiresIn = Math.max(reader.nextInt(), DEFAULT_EXPIRES_IN);
+            } else {
+                reader.skipValue();
+            }
+        }
+        if (value == null) {
+            throw new IOException("The token server sent no token");
+        }
+        return new Token(value, expiresIn * 1000L);
+    }
+
+    /**
+     * An issued token.
+     */
+    private static class Token {
+
+        final private String value;
+
+        final private long fetched = System.currentTimeMillis();
+
+        final private long expires;
+
+        /**
+         * 0 as long as the token has not been used.
+         */
+        private volatile long lastUsed;
+
+        Token(final String value, final long lifetime) {
+            this.value = value;
+            this.expires = this.fetched + lifetime;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+
+/**
+ * Remembers the validators (ETag and Last-Modified) of a response together
+ * with the tag that was resolved from it. The next request for the same key
+ * is sent as a conditional GET. When the registry answers 304 Not Modified,
+ * the cached tag is reused without transferring or parsing the body.
+ *
+ * The cache is bounded. The least recently used entries are evicted first.
+ *
+ * @author Jan De Cooman
+ */
+public class ValidatorCache {
+
+    final private Map<String, Entry> entries;
+
+    public ValidatorCache(final int maxSize) {
+        this.entries = new LinkedHashMap<String, ValidatorCache.Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, ValidatorCache.Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public synchronized Entry get(final String key) {
+        return this.entries.get(key);
+    }
+
+    /**
+     * Store the validators of the response. A response without validators
+     * cannot be revalidated and removes the previous entry.
+     *
+     * @param key
+     * @param response The executed request.
+     * @param tag The tag resolved from the response, can be null.
+     * @return The new entry, or null when the response has no validators.
+     */
+    public synchronized Entry put(final String key, final HttpMethod response, final DockerTag tag) {
+        Header etag = response.getResponseHeader("ETag");
+        Header lastModified = response.getResponseHeader("Last-Modified");
+        if (etag == null && lastModified == null) {
+            this.entries.remove(key);
+            return null;
+        }
+        Entry entry = new Entry(
+                etag == null ? null : etag.getValue(),
+                lastModified == null ? null : lastModified.getValue(),
+                tag);
+        this.entries.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Store an entry which was kept elsewhere, like on disk.
+     *
+     * @param key
+     * @param entry
+     */
+    public synchronized void put(final String key, final Entry entry) {
+        this.entries.put(key, entry);
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * The validators of one response.
+     */
+    public static class Entry {
+
+        final private String etag;
+
+        final private String lastModified;
+
+        final private DockerTag tag;
+
+        public Entry(final String etag, final String lastModified, final DockerTag tag) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.tag = tag;
+        }
+
+        /**
+         * Make the request conditional.
+         *
+         * @param request
+         */
+        public void addConditions(final HttpMethod request) {
+            if (this.etag != null) {
+                request.setRequestHeader("If-None-Match", this.etag);
+            }
+            if (this.lastModified != null) {
+                request.setRequestHeader("If-Modified-Since", this.lastModified);
+            }
+        }
+
+        public String getEtag() {
+            return this.etag;
+        }
+
+        public String getLastModified() {
+            return this.lastModified;
+        }
+
+        public DockerTag getTag() {
+            return this.tag;
+        }
+    }
+}
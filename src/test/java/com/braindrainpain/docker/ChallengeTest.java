@@ -0,0 +1,98 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import org.apache.commons.httpclient.Header;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Jan De Cooman
+ */
+public class ChallengeTest {
+
+    @Test
+    public void testBearer() {
+        Challenge challenge = parse("Bearer realm=\"https://auth.docker.io/token\","
+                + "service=\"registry.docker.io\",scope=\"repository:library/ubuntu:pull\"");
+        assertTrue(challenge.isBearer());
+        assertEquals("https://auth.docker.io/token", challenge.getRealm());
+        assertEquals("registry.docker.io", challenge.getService());
+        assertEquals("repository:library/ubuntu:pull", challenge.getScope());
+    }
+
+    @Test
+    public void testQuotedComma() {
+        Challenge challenge = parse("Bearer realm=\"https://registry/token\", "
+                + "scope=\"repository:team/app:pull,push\"");
+        assertEquals("repository:team/app:pull,push", challenge.getScope());
+        assertNull(challenge.getService());
+    }
+
+    @Test
+    public void testUnquotedAndCaseInsensitive() {
+        Challenge challenge = parse("bearer Realm=https://registry/token,Service=registry");
+        assertTrue(challenge.isBearer());
+        assertEquals("https://registry/token", challenge.getRealm());
+        assertEquals("registry", challenge.getService());
+    }
+
+    @Test
+    public void testBearerWithoutRealm() {
+        assertNull(parse("Bearer service=\"registry\""));
+    }
+
+    @Test
+    public void testBasic() {
+        Challenge challenge = parse("Basic realm=\"Registry Realm\"");
+        assertFalse(challenge.isBearer());
+        assertEquals("Basic", challenge.getScheme());
+        assertEquals("Registry Realm", challenge.getRealm());
+        assertNotEquals(challenge, parse("Bearer realm=\"Registry Realm\""));
+        assertEquals("Basic", parse("Basic").getScheme());
+    }
+
+    @Test
+    public void testUnsupported() {
+        assertNull(Challenge.parse(null));
+        assertNull(parse("Negotiate"));
+        assertNull(parse("Digest realm=\"x\", nonce=\"y\""));
+    }
+
+    @Test
+    public void testEquality() {
+        String value = "Bearer realm=\"https://auth/token\",service=\"s\",scope=\"repository:a:pull\"";
+        assertEquals(parse(value), parse(value));
+        assertEquals(parse(value).hashCode(), parse(value).hashCode());
+        assertNotEquals(parse(value), parse(value.replace("repository:a", "repository:b")));
+    }
+
+    private static Challenge parse(final String value) {
+        return Challenge.parse(new Header("WWW-Authenticate", value));
+    }
+}
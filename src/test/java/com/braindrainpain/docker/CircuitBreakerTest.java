@@ -0,0 +1,128 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Jan De Cooman
+ */
+public class CircuitBreakerTest {
+
+    /**
+     * Opens after 3 failures for 100ms, doubled up to 400ms. A probe which
+     * does not answer within 300ms is replaced.
+     */
+    private static CircuitBreaker breaker() {
+        return new CircuitBreaker("http://registry:5000", 3, 100, 400, 300);
+    }
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = breaker();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.ALLOWED, breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.allowRequest());
+        assertFalse(breaker.isAvailable());
+        assertEquals(1, breaker.getOpenedCount());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void testSuccessfulProbeCloses() throws Exception {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(150);
+        assertTrue(breaker.isAvailable());
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // only one probe at a time
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.allowRequest());
+
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.ALLOWED, breaker.allowRequest());
+        assertEquals(1, breaker.getHalfOpenedCount());
+        assertEquals(1, breaker.getClosedCount());
+    }
+
+    @Test
+    public void testFailedProbeDoublesTheOpenTime() throws Exception {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(150);
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(150);
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.allowRequest());
+        Thread.sleep(100);
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testAbortedProbeOpensForTheSameTime() throws Exception {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(150);
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.allowRequest());
+        breaker.recordAborted();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.allowRequest());
+        Thread.sleep(150);
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.allowRequest());
+    }
+
+    @Test
+    public void testProbeWithoutAnswerIsReplaced() throws Exception {
+        CircuitBreaker breaker = opened();
+        Thread.sleep(150);
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.allowRequest());
+        Thread.sleep(150);
+        assertEquals(CircuitBreaker.Permit.DENIED, breaker.allowRequest());
+        Thread.sleep(200);
+        assertEquals(CircuitBreaker.Permit.PROBE, breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    private static CircuitBreaker opened() {
+        CircuitBreaker breaker = breaker();
+        for (int i = 0; i < 3; i++) {
+            breaker.recordFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.google.gson.stream.JsonReader;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The stub registry stands in for Docker Hub. The page holds the three most
+ * recently updated tags: 'latest', tag-0 and tag-1. The pages are not shared,
+ * every lookup fetches the page again.
+ *
+ * @author Jan De Cooman
+ */
+public class DockerHubTest {
+
+    final private static String UPDATED = "2024-05-01T12:34:56.123456Z";
+
+    private static StubRegistry stub;
+
+    private static PrintStream out;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        out = Soak.mute();
+        stub = new StubRegistry(DockerAPI.V2, 10).withTags("library/small", 1).withPrivate("someone/private");
+        stub.start();
+        System.setProperty("docker.repo.hub.hosts", "127.0.0.1");
+        System.setProperty("docker.repo.hub.url", stub.getUrl());
+        System.setProperty("docker.repo.hub.page.size", "3");
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        System.clearProperty("docker.repo.hub.hosts");
+        System.clearProperty("docker.repo.hub.url");
+        System.clearProperty("docker.repo.hub.page.size");
+        stub.stop();
+        System.setOut(out);
+    }
+
+    @Test
+    public void testReadTag() throws Exception {
+        JsonReader json = new JsonReader(new StringReader("{\"full_size\":123,\"name\":\"latest\","
+                + "\"images\":[{\"os\":\"linux\"}],\"digest\":\"sha256:abc\",\"last_updated\":\"" + UPDATED + "\"}"));
+        assertArrayEquals(new String[]{"latest", "sha256:abc", UPDATED}, DockerHub.Page.readTag(json));
+    }
+
+    @Test
+    public void testReadTagWithoutDigest() throws Exception {
+        JsonReader json = new JsonReader(new StringReader("{\"name\":\"latest\",\"digest\":null}"));
+        assertArrayEquals(new String[]{"latest", null, null}, DockerHub.Page.readTag(json));
+    }
+
+    @Test
+    public void testTime() throws Exception {
+        SimpleDateFormat format = format();
+        assertEquals(format.parse("2024-05-01T12:34:56").getTime(), DockerHub.Page.time(format, UPDATED));
+        assertEquals(format.parse("2024-05-01T12:34:56").getTime(),
+                DockerHub.Page.time(format, "2024-05-01T12:34:56Z"));
+        assertEquals(0, DockerHub.Page.time(format, null));
+        assertEquals(0, DockerHub.Page.time(format, "2024-05-01"));
+        assertEquals(0, DockerHub.Page.time(format, "yesterday, around noon"));
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        DockerHub.Page page = DockerHub.Page.parse(new StringReader("{\"count\":30,"
+                + "\"next\":\"https://hub.docker.com/v2/repositories/library/nginx/tags?page=2\",\"results\":["
+                + "{\"name\":\"latest\",\"digest\":\"sha256:1\",\"last_updated\":\"" + UPDATED + "\"},"
+                + "{\"name\":\"1.25\",\"digest\":\"sha256:2\",\"last_updated\":\"2024-05-01T12:00:00.5Z\"}]}"));
+        assertEquals(2, page.size());
+        assertEquals("sha256:1", page.get("latest").getHash());
+        assertEquals("sha256:2", page.get("1.25").getHash());
+        assertNull(page.get("1.24"));
+        assertFalse(page.isComplete());
+
+        long oldest = format().parse("2024-05-01T12:00:00").getTime();
+        assertTrue(page.isUnchangedSince(oldest + 60 * 1000));
+        assertFalse(page.isUnchangedSince(oldest + 59 * 1000));
+    }
+
+    @Test
+    public void testParseLastPage() throws Exception {
+        DockerHub.Page page = DockerHub.Page.parse(new StringReader("{\"next\":null,\"results\":["
+                + "{\"name\":\"latest\",\"digest\":\"sha256:1\",\"last_updated\":\"" + UPDATED + "\"}]}"));
+        assertTrue(page.isComplete());
+    }
+
+    @Test
+    public void testParseWithoutUpdate() throws Exception {
+        DockerHub.Page page = DockerHub.Page.parse(new StringReader("{\"next\":\"...\",\"results\":["
+                + "{\"name\":\"latest\",\"digest\":\"sha256:1\",\"last_updated\":\"" + UPDATED + "\"},"
+                + "{\"name\":\"old\",\"digest\":\"sha256:2\"}]}"));
+        assertEquals(2, page.size());
+        assertFalse(page.isUnchangedSince(Long.MAX_VALUE - 60 * 1000));
+    }
+
+    @Test
+    public void testUnavailable() {
+        DockerHub.Page page = DockerHub.Page.unavailable();
+        assertEquals(0, page.size());
+        assertFalse(page.isComplete());
+        assertFalse(page.isUnchangedSince(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testNewestTags() {
+        assertEquals(stub.getUrl() + "/v2/repositories/library/nginx/tags?page_size=3&ordering=last_updated",
+                DockerHub.newestTags("nginx"));
+        assertEquals(stub.getUrl() + "/v2/repositories/library/nginx/tags?page_size=3&ordering=last_updated",
+                DockerHub.newestTags("library/nginx"));
+        assertEquals(stub.getUrl() + "/v2/repositories/someone/app/tags?page_size=3&ordering=last_updated",
+                DockerHub.newestTags("someone/app"));
+    }
+
+    @Test
+    public void testOfficialImageOnTheRegistry() {
+        PollTarget target = PollTarget.compile(Soak.repository(stub.getUrl()), Soak.pkg("nginx", "1.25"));
+        assertEquals("library/nginx", target.getRepository());
+        assertEquals(stub.getUrl() + "/v2/library/nginx/manifests/1.25", target.getTagUrl());
+        assertEquals(DockerHub.newestTags("nginx"), target.getHubUrl());
+    }
+
+    @Test
+    public void testTagOnThePage() {
+        long requests = stub.getRequests();
+        assertEquals(stub.getDigest("library/app", "tag-1"), lookup("app", "tag-1").getHash());
+        // the page only, neither the tag list nor the manifest
+        assertEquals(requests + 1, stub.getRequests());
+    }
+
+    @Test
+    public void testTagNotOnThePage() {
+        long requests = stub.getRequests();
+        assertEquals(stub.getDigest("library/other", "tag-5"), lookup("other", "tag-5").getHash());
+        // the page, then the manifest from the registry
+        assertEquals(requests + 2, stub.getRequests());
+
+        // tag-5 was resolved after the oldest update on the page, it did not change
+        assertEquals(stub.getDigest("library/other", "tag-5"), lookup("other", "tag-5").getHash());
+        assertEquals(requests + 3, stub.getRequests());
+    }
+
+    @Test
+    public void testMissingTagOnTheLastPage() {
+        long requests = stub.getRequests();
+        assertNull(lookup("small", "tag-7"));
+        // the page holds all the tags, the registry is not asked
+        assertEquals(requests + 1, stub.getRequests());
+    }
+
+    @Test
+    public void testPrivateRepository() {
+        long requests = stub.getRequests();
+        assertEquals(stub.getDigest("someone/private", "latest"), lookup("someone/private", "latest").getHash());
+        // the Hub does not list the tags, the registry does
+        assertEquals(requests + 2, stub.getRequests());
+    }
+
+    private static DockerTag lookup(final String repository, final String tag) {
+        PollTarget target = PollTarget.compile(Soak.repository(stub.getUrl()), Soak.pkg(repository, tag));
+        assertEquals(DockerAPI.HUB, target.getApi());
+        // drop the shared page like a push does, every lookup fetches it again
+        DockerRepository.pushed(target.getRepository());
+        return DockerRepository.getInstance().getLatestRevision(target);
+    }
+
+    private static SimpleDateFormat format() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+}
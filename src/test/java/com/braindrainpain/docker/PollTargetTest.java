@@ -0,0 +1,107 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageConfiguration;
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageMaterialProperty;
+import com.thoughtworks.go.plugin.api.material.packagerepository.RepositoryConfiguration;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Jan De Cooman
+ */
+public class PollTargetTest {
+
+    final private static String REGISTRY = "https://registry.hub.docker.com";
+
+    @Test
+    public void testAnonymousKeys() {
+        PollTarget target = compile("library/busybox", null, null);
+        assertEquals(REGISTRY + "|library/busybox|latest", target.getKey());
+        assertEquals(REGISTRY + "|library/busybox", target.getListKey());
+        assertEquals(target.getKey(), target.getStoreKey());
+    }
+
+    @Test
+    public void testKeysAreScopedByCredentials() {
+        PollTarget anonymous = compile("library/alpine", null, null);
+        PollTarget alice = compile("library/alpine", "alice", "secret");
+        PollTarget wrong = compile("library/alpine", "alice", "wrong");
+        PollTarget bob = compile("library/alpine", "bob", "secret");
+
+        assertNotEquals(anonymous.getListKey(), alice.getListKey());
+        assertNotEquals(alice.getListKey(), wrong.getListKey());
+        assertNotEquals(alice.getListKey(), bob.getListKey());
+        assertNotEquals(alice.getKey(), wrong.getKey());
+        assertTrue(alice.getListKey().endsWith("|" + anonymous.getListKey()));
+        assertTrue(alice.getKey().endsWith("|" + anonymous.getKey()));
+    }
+
+    @Test
+    public void testSameCredentialsShareTheKeys() {
+        PollTarget first = compile("library/debian", "alice", "secret");
+        PollTarget second = compile("library/debian", "alice", "secret");
+        assertEquals(first.getKey(), second.getKey());
+        assertEquals(first.getListKey(), second.getListKey());
+    }
+
+    @Test
+    public void testStoreKeyHasNoSecret() {
+        PollTarget target = compile("library/ubuntu", "alice", "secret");
+        assertEquals(REGISTRY + "|library/ubuntu|latest|alice", target.getStoreKey());
+        assertTrue(target.getKey().indexOf("secret") < 0);
+    }
+
+    @Test
+    public void testRefusedCredentialsDoNotBlockOthers() {
+        NegativeCache failures = new NegativeCache(60 * 1000, 100);
+        PollTarget wrong = compile("library/nginx", "alice", "wrong");
+        PollTarget right = compile("library/nginx", "alice", "secret");
+        failures.put(wrong.getListKey(), "Access denied");
+
+        assertEquals("Access denied", failures.get(wrong.getListKey()));
+        assertNull(failures.get(right.getListKey()));
+
+        failures.invalidate("library/nginx");
+        assertNull(failures.get(wrong.getListKey()));
+    }
+
+    private static PollTarget compile(final String repository, final String username,
+            final String password) {
+        RepositoryConfiguration repositoryConfiguration = new RepositoryConfiguration();
+        repositoryConfiguration.add(new PackageMaterialProperty(Constants.REGISTRY, REGISTRY));
+        if (username != null) {
+            repositoryConfiguration.add(new PackageMaterialProperty(Constants.USERNAME, username));
+            repositoryConfiguration.add(new PackageMaterialProperty(Constants.PASSWORD, password));
+        }
+        PackageConfiguration packageConfiguration = new PackageConfiguration();
+        packageConfiguration.add(new PackageMaterialProperty(Constants.REPOSITORY, repository));
+        packageConfiguration.add(new PackageMaterialProperty(Constants.TAG, "latest"));
+        return PollTarget.compile(repositoryConfiguration, packageConfiguration);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Jan De Cooman
+ */
+public class PushListenerTest {
+
+    @Test
+    public void testDistributionPush() throws IOException {
+        List<String[]> events = parse("{\"events\": [{\"id\": \"1\", \"action\": \"push\", \"target\": {"
+                + "\"mediaType\": \"application/vnd.docker.distribution.manifest.v2+json\","
+                + " \"repository\": \"team/app\", \"tag\": \"1.0\", \"size\": 7}}]}");
+        assertEquals(1, events.size());
+        assertArrayEquals(new String[]{"team/app", "1.0"}, events.get(0));
+    }
+
+    @Test
+    public void testDistributionSkipsPullsAndLayers() throws IOException {
+        List<String[]> events = parse("{\"events\": ["
+                + "{\"action\": \"pull\", \"target\": {\"repository\": \"team/app\", \"tag\": \"1.0\"}},"
+                + "{\"action\": \"push\", \"target\": {\"repository\": \"team/app\","
+                + " \"mediaType\": \"application/vnd.docker.image.rootfs.diff.tar.gzip\"}},"
+                + "{\"action\": \"delete\", \"target\": {\"repository\": \"team/old\","
+                + " \"mediaType\": \"application/vnd.oci.image.index.v1+json\"}}]}");
+        assertEquals(1, events.size());
+        assertArrayEquals(new String[]{"team/old", null}, events.get(0));
+    }
+
+    @Test
+    public void testHarborPush() throws IOException {
+        List<String[]> events = parse("{\"type\": \"PUSH_ARTIFACT\", \"occur_at\": 1700000000,"
+                + " \"event_data\": {\"resources\": [{\"digest\": \"sha256:1\", \"tag\": \"1.0\"},"
+                + " {\"tag\": \"latest\"}], \"repository\": {\"name\": \"app\","
+                + " \"repo_full_name\": \"team/app\"}}}");
+        assertEquals(2, events.size());
+        assertArrayEquals(new String[]{"team/app", "1.0"}, events.get(0));
+        assertArrayEquals(new String[]{"team/app", "latest"}, events.get(1));
+    }
+
+    @Test
+    public void testHarborSkipsPulls() throws IOException {
+        List<String[]> events = parse("{\"type\": \"PULL_ARTIFACT\", \"event_data\": {"
+                + "\"resources\": [{\"tag\": \"1.0\"}], \"repository\": {\"repo_full_name\": \"team/app\"}}}");
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testHarborTypeAfterEventData() throws IOException {
+        List<String[]> events = parse("{\"event_data\": {\"resources\": [{\"tag\": \"1.0\"}],"
+                + " \"repository\": {\"repo_full_name\": \"team/app\"}}, \"type\": \"PUSH_ARTIFACT\"}");
+        assertEquals(1, events.size());
+        assertArrayEquals(new String[]{"team/app", "1.0"}, events.get(0));
+    }
+
+    @Test
+    public void testHarborSkipsPullsAfterEventData() throws IOException {
+        List<String[]> events = parse("{\"event_data\": {\"resources\": [{\"tag\": \"1.0\"}],"
+                + " \"repository\": {\"repo_full_name\": \"team/app\"}}, \"type\": \"PULL_ARTIFACT\"}");
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testHarborWithoutType() throws IOException {
+        List<String[]> events = parse("{\"event_data\": {\"resources\": [{\"tag\": \"1.0\"}],"
+                + " \"repository\": {\"repo_full_name\": \"team/app\"}}}");
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testHarborWithoutTags() throws IOException {
+        List<String[]> events = PushListener.parseHarbor(new JsonReader(new StringReader(
+                "{\"repository\": {\"repo_full_name\": \"team/app\"}, \"resources\": [\"x\"]}")));
+        assertEquals(1, events.size());
+        assertArrayEquals(new String[]{"team/app", null}, events.get(0));
+    }
+
+    @Test
+    public void testHarborWithoutRepository() throws IOException {
+        List<String[]> events = PushListener.parseHarbor(new JsonReader(new StringReader(
+                "{\"resources\": [{\"tag\": \"1.0\"}]}")));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidJson() throws IOException {
+        parse("{\"events\": [");
+    }
+
+    private static List<String[]> parse(final String body) throws IOException {
+        return PushListener.parse(new JsonReader(new StringReader(body)));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.methods.GetMethod;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Jan De Cooman
+ */
+public class RateLimiterTest {
+
+    final private static String REGISTRY = "http://registry:5000";
+
+    @Test
+    public void testNoLimit() throws Exception {
+        RateLimiter limiter = new RateLimiter(REGISTRY, 0, 10, 100);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.acquire(0, i % 2 == 0));
+        }
+    }
+
+    @Test
+    public void testConfiguredRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(REGISTRY, 10, 1, 1000);
+        assertTrue(limiter.acquire(0, false));
+        long start = System.currentTimeMillis();
+        assertTrue(limiter.acquire(0, false));
+        assertTrue(System.currentTimeMillis() - start >= 50);
+    }
+
+    @Test
+    public void testAnnouncedQuotaOnlyHoldsThePulls() throws Exception {
+        // the pull limit of Docker Hub, nothing remains
+        RateLimiter limiter = new RateLimiter(REGISTRY, 0, 10, 100);
+        limiter.update(new Response("/v2/library/nginx/manifests/latest",
+                "RateLimit-Limit", "100;w=21600", "RateLimit-Remaining", "0;w=21600",
+                "RateLimit-Reset", "21600"), 200, true);
+
+        assertFalse(limiter.acquire(0, true));
+        for (int i = 0; i < 100; i++) {
+            // the HEAD requests and the tag lists
+            assertTrue(limiter.acquire(0, false));
+        }
+    }
+
+    @Test
+    public void testRemainingPulls() throws Exception {
+        RateLimiter limiter = new RateLimiter(REGISTRY, 0, 10, 100);
+        limiter.update(new Response("/v2/library/nginx/manifests/latest",
+                "RateLimit-Limit", "100;w=21600", "RateLimit-Remaining", "2;w=21600"), 200, true);
+        assertTrue(limiter.acquire(0, true));
+        assertTrue(limiter.acquire(0, true));
+        assertFalse(limiter.acquire(0, true));
+    }
+
+    @Test
+    public void testQuotaOfOtherRequestsIsIgnored() throws Exception {
+        RateLimiter limiter = new RateLimiter(REGISTRY, 0, 10, 100);
+        limiter.update(new Response("/v2/library/nginx/tags/list",
+                "RateLimit-Limit", "100;w=21600", "RateLimit-Remaining", "0;w=21600",
+                "RateLimit-Reset", "21600"), 200, false);
+        assertTrue(limiter.acquire(0, true));
+    }
+
+    @Test
+    public void testThrottlingHalvesTheRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(REGISTRY, 10, 10, 1000);
+        assertTrue(limiter.acquire(0, false));
+        limiter.update(new Response("/v2/library/nginx/tags/list"), 429, false);
+
+        // 5 requests per second from now on, one token left
+        assertTrue(limiter.acquire(0, false));
+        long start = System.currentTimeMillis();
+        assertTrue(limiter.acquire(0, false));
+        assertTrue(System.currentTimeMillis() - start >= 150);
+    }
+
+    @Test
+    public void testNegativeRetryAfterDoesNotWait() throws Exception {
+        RateLimiter limiter = new RateLimiter(REGISTRY, 0, 10, 100);
+        long start = System.currentTimeMillis();
+        assertTrue(limiter.awaitRetry(new Response("/v2/library/nginx/manifests/latest", "Retry-After", "-5")));
+        assertTrue(System.currentTimeMillis() - start < 100);
+        assertFalse(limiter.awaitRetry(new Response("/v2/library/nginx/manifests/latest", "Retry-After", "3600")));
+    }
+
+    /**
+     * A request which has been answered with the headers.
+     */
+    private static class Response extends GetMethod {
+
+        Response(final String path, final String... headers) {
+            super(REGISTRY + path);
+            for (int i = 0; i < headers.length; i += 2) {
+                this.getResponseHeaderGroup().addHeader(new Header(headers[i], headers[i + 1]));
+            }
+        }
+    }
+}
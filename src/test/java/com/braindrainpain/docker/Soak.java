@@ -0,0 +1,475 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageConfiguration;
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageMaterialProperty;
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageRevision;
+import com.thoughtworks.go.plugin.api.material.packagerepository.RepositoryConfiguration;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak of the poller against the in-process registry.
+ *
+ * A scenario configures the registry, then polls are fired from many threads
+ * at once, spread over a set of packages. Every poll hands Go's revision of
+ * the package, the digest the registry holds, so an unchanged tag must not
+ * be reported as a modification. The report shows the latency percentiles,
+ * the wrong changes and revisions, the registry requests per poll and the
+ * heap growth. {@link SoakTest} runs the scenarios at a small scale, all of
+ * them can be run at a large scale from the benchmarks jar:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.braindrainpain.docker.Soak SCENARIO [polls] [threads] [packages]
+ * </pre>
+ *
+ * The settings of the plugin are passed as system properties. Run one
+ * scenario per JVM, the plugin keeps its caches between the polls.
+ *
+ * @author Jan De Cooman
+ */
+public class Soak {
+
+    /**
+     * The registry behaviour of the scenarios.
+     */
+    public enum Scenario {
+
+        BASELINE(DockerAPI.V2, 1000) {
+        },
+        V1(DockerAPI.V1, 1000) {
+        },
+        LATENCY(DockerAPI.V2, 1000) {
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withLatency(50);
+            }
+        },
+        SLOW_DRIP(DockerAPI.V1, 5000) {
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withSlowDrip(4096, 5);
+            }
+        },
+        ERRORS(DockerAPI.V2, 1000) {
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withErrorRate(0.05);
+            }
+        },
+        THROTTLED(DockerAPI.V2, 1000) {
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withThrottling(0.10, 1);
+            }
+        },
+        LARGE(DockerAPI.V1, 50000) {
+        },
+        AUTH(DockerAPI.V2, 1000) {
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withTokenAuth(60);
+            }
+        },
+        PAGINATED(DockerAPI.V2, 20000) {
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withLatency(20).withPagination(1000);
+            }
+        },
+        RATE_LIMITED(DockerAPI.V2, 1000) {
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withRateLimit(200, 1);
+            }
+        },
+        HUB(DockerAPI.V2, 1000) {
+            @Override
+            void started(final List<StubRegistry> registries) {
+                // the stub stands in for Docker Hub, 'latest', tag-0 and tag-1 are on the page
+                System.setProperty("docker.repo.hub.hosts", "127.0.0.1");
+                System.setProperty("docker.repo.hub.url", registries.get(0).getUrl());
+                if (System.getProperty("docker.repo.hub.page.size") == null) {
+                    System.setProperty("docker.repo.hub.page.size", "3");
+                }
+            }
+        },
+        MISSING(DockerAPI.V2, 1000) {
+            @Override
+            String repository(final int pkg) {
+                // every fourth repository does not exist
+                return pkg / 5 % 4 == 3 ? "soak/missing-" + (pkg / 5) : super.repository(pkg);
+            }
+
+            @Override
+            String tag(final int pkg) {
+                return pkg % 5 == 4 ? "gone" : super.tag(pkg);
+            }
+        },
+        ADAPTIVE(DockerAPI.V2, 1000) {
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withChanges(500);
+            }
+
+            @Override
+            void started(final List<StubRegistry> registries) {
+                if (System.getProperty("docker.repo.adaptive.enabled") == null) {
+                    System.setProperty("docker.repo.adaptive.enabled", "true");
+                }
+            }
+        },
+        NOTIFIED(DockerAPI.V2, 1000) {
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withChanges(500).withNotifications("http://127.0.0.1:" + NOTIFICATIONS_PORT + "/");
+            }
+
+            @Override
+            void started(final List<StubRegistry> registries) {
+                System.setProperty("docker.repo.notifications.port", String.valueOf(NOTIFICATIONS_PORT));
+                System.setProperty("docker.repo.notifications.host", "127.0.0.1");
+                PushListener.startup();
+            }
+        },
+        MIRRORS(DockerAPI.V2, 1000) {
+            @Override
+            int mirrors() {
+                return 2;
+            }
+
+            @Override
+            void configure(final StubRegistry registry) {
+                registry.withLatency(10).withSlowRate(0.05, 2000);
+            }
+        };
+
+        final private DockerAPI api;
+
+        final private int tags;
+
+        private Scenario(final DockerAPI api, final int tags) {
+            this.api = api;
+            this.tags = tags;
+        }
+
+        /**
+         * @return The registry, followed by its mirrors.
+         */
+        List<StubRegistry> createRegistries() {
+            List<StubRegistry> registries = new ArrayList<>();
+            for (int i = 0; i <= this.mirrors(); i++) {
+                StubRegistry registry = new StubRegistry(this.api, this.tags).withThreads(64);
+                this.configure(registry);
+                registries.add(registry);
+            }
+            return registries;
+        }
+
+        int mirrors() {
+            return 0;
+        }
+
+        void configure(final StubRegistry registry) {
+        }
+
+        /**
+         * Five tags per repository, so the packages share the tag lists.
+         */
+        String repository(final int pkg) {
+            return "soak/repository-" + (pkg / 5);
+        }
+
+        String tag(final int pkg) {
+            return pkg % 5 == 0 ? "latest" : "tag-" + (pkg % 5);
+        }
+
+        /**
+         * Set the properties which need the URLs of the running registries.
+         */
+        void started(final List<StubRegistry> registries) {
+        }
+    }
+
+    /**
+     * The port of the notification listener of the plugin.
+     */
+    final private static int NOTIFICATIONS_PORT = freePort();
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: Soak " + Arrays.toString(Scenario.values())
+                    + " [polls] [threads] [packages]");
+            System.exit(1);
+        }
+        Scenario scenario = Scenario.valueOf(args[0]);
+        int polls = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int packages = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+
+        PrintStream out = mute();
+        List<StubRegistry> registries = scenario.createRegistries();
+        try {
+            for (StubRegistry registry : registries) {
+                registry.start();
+            }
+            scenario.started(registries);
+            new Soak(scenario, registries, polls, threads, packages).run(out);
+        } finally {
+            for (StubRegistry registry : registries) {
+                registry.stop();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Outside of Go the plugin logger writes to the console, drop it.
+     *
+     * @return The console.
+     */
+    static PrintStream mute() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(final int b) {
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+            }
+        }));
+        return out;
+    }
+
+    static RepositoryConfiguration repository(final String registry) {
+        RepositoryConfiguration configuration = new RepositoryConfiguration();
+        configuration.add(new PackageMaterialProperty(Constants.REGISTRY, registry));
+        return configuration;
+    }
+
+    static PackageConfiguration pkg(final String repository, final String tag) {
+        PackageConfiguration configuration = new PackageConfiguration();
+        configuration.add(new PackageMaterialProperty(Constants.REPOSITORY, repository));
+        configuration.add(new PackageMaterialProperty(Constants.TAG, tag));
+        return configuration;
+    }
+
+    final private Scenario scenario;
+
+    final private List<StubRegistry> registries;
+
+    final private String registry;
+
+    final private int polls;
+
+    final private int threads;
+
+    final private int packages;
+
+    final private long[] latencies;
+
+    final private AtomicInteger recorded = new AtomicInteger();
+
+    final private AtomicLong failures = new AtomicLong();
+
+    /**
+     * The polls which reported a modification of a tag that did not change.
+     */
+    final private AtomicLong changes = new AtomicLong();
+
+    /**
+     * The latest revisions which are not the digest of the registry.
+     */
+    final private AtomicLong mismatches = new AtomicLong();
+
+    private volatile RuntimeException firstFailure;
+
+    Soak(final Scenario scenario, final List<StubRegistry> registries, final int polls,
+            final int threads, final int packages) {
+        this.scenario = scenario;
+        this.registries = registries;
+        StringBuilder urls = new StringBuilder();
+        for (StubRegistry stub : registries) {
+            urls.append(urls.length() == 0 ? "" : ",").append(stub.getUrl());
+        }
+        this.registry = urls.toString();
+        this.polls = polls;
+        this.threads = threads;
+        this.latencies = new long[polls];
+        this.packages = packages;
+    }
+
+    void run(final PrintStream out) throws InterruptedException {
+        final DockerMaterialPoller poller = new DockerMaterialPoller();
+        final StubRegistry primary = this.registries.get(0);
+        long heapBefore = usedHeap();
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < this.polls; i++) {
+            final int pkg = i % this.packages;
+            final String repository = this.scenario.repository(pkg);
+            final String tag = this.scenario.tag(pkg);
+            final boolean modification = i % 2 == 1;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Go hands every call its own configurations, the plugin API
+                    // sorts their property lists in place so they cannot be shared
+                    RepositoryConfiguration repositoryConfiguration = repository(registry);
+                    PackageConfiguration packageConfiguration = pkg(repository, tag);
+                    // Go knows the digest the registry holds now
+                    String digest = primary.getDigest(repository, tag);
+                    long begin = System.nanoTime();
+                    try {
+                        if (modification) {
+                            PackageRevision revision = poller.latestModificationSince(packageConfiguration,
+                                    repositoryConfiguration, new PackageRevision(digest, new Date(), "docker"));
+                            if (revision != null && primary.getDigest(repository, tag).equals(digest)) {
+                                changes.incrementAndGet();
+                            }
+                        } else {
+                            PackageRevision revision
+                                    = poller.getLatestRevision(packageConfiguration, repositoryConfiguration);
+                            if (!digest.equals(revision.getRevision())
+                                    && !primary.getDigest(repository, tag).equals(revision.getRevision())) {
+                                mismatches.incrementAndGet();
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        if (failures.getAndIncrement() == 0) {
+                            firstFailure = e;
+                        }
+                    }
+                    latencies[recorded.getAndIncrement()] = System.nanoTime() - begin;
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long elapsed = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        Arrays.sort(this.latencies);
+        out.println("Scenario         " + this.scenario + " (" + this.polls + " polls, "
+                + this.threads + " threads, " + this.packages + " packages)");
+        out.println(String.format("Duration         %.1f s", elapsed / 1e9));
+        out.println(String.format("Throughput       %.0f polls/s", this.polls / (elapsed / 1e9)));
+        out.println(String.format("Latency p50      %.2f ms", this.percentile(0.50)));
+        out.println(String.format("Latency p99      %.2f ms", this.percentile(0.99)));
+        out.println(String.format("Latency max      %.2f ms", this.latencies[this.polls - 1] / 1e6));
+        out.println("Failed polls     " + this.failures.get());
+        if (this.firstFailure != null) {
+            out.println("First failure    " + this.firstFailure
+                    + (this.firstFailure.getCause() == null ? "" : " caused by " + this.firstFailure.getCause()));
+            if (Boolean.getBoolean("soak.trace")) {
+                this.firstFailure.printStackTrace(out);
+            }
+        }
+        out.println("Wrong changes    " + this.changes.get());
+        out.println("Wrong revisions  " + this.mismatches.get());
+        long errors = 0;
+        long throttled = 0;
+        long tokenRequests = 0;
+        long bytes = 0;
+        StringBuilder spread = new StringBuilder();
+        for (StubRegistry stub : this.registries) {
+            errors += stub.getErrors();
+            throttled += stub.getThrottled();
+            tokenRequests += stub.getTokenRequests();
+            bytes += stub.getBytes();
+            spread.append(spread.length() == 0 ? "" : " / ").append(stub.getRequests());
+        }
+        long requests = this.getRequests();
+        out.println(String.format("Requests/poll    %.3f (%d requests, %d errors, %d throttled)",
+                (double) requests / this.polls, requests, errors, throttled));
+        if (this.registries.size() > 1) {
+            out.println("Requests spread  " + spread);
+        }
+        if (tokenRequests > 0) {
+            out.println("Token requests   " + tokenRequests);
+        }
+        out.println(String.format("Bytes/poll       %.0f", (double) bytes / this.polls));
+        out.println(String.format("Heap growth      %.1f MB", (heapAfter - heapBefore) / (1024.0 * 1024.0)));
+    }
+
+    long getFailures() {
+        return this.failures.get();
+    }
+
+    long getChanges() {
+        return this.changes.get();
+    }
+
+    long getMismatches() {
+        return this.mismatches.get();
+    }
+
+    List<StubRegistry> getRegistries() {
+        return this.registries;
+    }
+
+    /**
+     * @return The requests to the registry and its mirrors.
+     */
+    long getRequests() {
+        long requests = 0;
+        for (StubRegistry stub : this.registries) {
+            requests += stub.getRequests();
+        }
+        return requests;
+    }
+
+    private double percentile(final double percentile) {
+        int index = (int) Math.ceil(percentile * this.polls) - 1;
+        return this.latencies[Math.max(0, index)] / 1e6;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.thoughtworks.go.plugin.api.material.packagerepository.PackageRevision;
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Runs the {@link Soak} scenarios which need no JVM-wide settings at a small
+ * scale, and checks the failures, the reported changes and the requests.
+ *
+ * @author Jan De Cooman
+ */
+public class SoakTest {
+
+    /**
+     * Small enough for the build.
+     */
+    final private static int POLLS = 400;
+
+    final private static int THREADS = 16;
+
+    final private static int PACKAGES = 20;
+
+    @Test
+    public void testBaseline() throws Exception {
+        Soak soak = run(Soak.Scenario.BASELINE);
+        assertEquals(0, soak.getFailures());
+        assertEquals(0, soak.getChanges());
+        assertEquals(0, soak.getMismatches());
+        // one manifest per poll at most, the tag lists are shared
+        assertTrue(soak.getRequests() <= POLLS * 1.2);
+    }
+
+    @Test
+    public void testV1() throws Exception {
+        Soak soak = run(Soak.Scenario.V1);
+        assertEquals(0, soak.getFailures());
+        assertEquals(0, soak.getChanges());
+        assertEquals(0, soak.getMismatches());
+        // the lists of the four repositories hold the digests
+        assertTrue(soak.getRequests() <= POLLS / 10);
+    }
+
+    @Test
+    public void testAuth() throws Exception {
+        Soak soak = run(Soak.Scenario.AUTH);
+        assertEquals(0, soak.getFailures());
+        assertEquals(0, soak.getChanges());
+        assertEquals(0, soak.getMismatches());
+        // the tokens are cached per repository
+        assertTrue(soak.getRegistries().get(0).getTokenRequests() <= 2 * PACKAGES);
+    }
+
+    @Test
+    public void testPaginated() throws Exception {
+        Soak soak = run(Soak.Scenario.PAGINATED);
+        assertEquals(0, soak.getFailures());
+        assertEquals(0, soak.getChanges());
+        assertEquals(0, soak.getMismatches());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        Soak soak = run(Soak.Scenario.ERRORS);
+        // a failed tag list fails the polls which wait for it, at most one per thread
+        assertTrue(soak.getFailures() <= soak.getRegistries().get(0).getErrors() * THREADS);
+        assertTrue(soak.getFailures() < POLLS / 2);
+        assertEquals(0, soak.getChanges());
+        assertEquals(0, soak.getMismatches());
+    }
+
+    @Test
+    public void testMissing() throws Exception {
+        Soak soak = run(Soak.Scenario.MISSING);
+        int missing = 0;
+        for (int i = 0; i < POLLS; i++) {
+            int pkg = i % PACKAGES;
+            if (Soak.Scenario.MISSING.repository(pkg).contains("missing") || Soak.Scenario.MISSING.tag(pkg).equals("gone")) {
+                missing++;
+            }
+        }
+        assertEquals(missing, soak.getFailures());
+        assertEquals(0, soak.getChanges());
+        assertEquals(0, soak.getMismatches());
+        // the failures are remembered, they do not cost a request per poll
+        assertTrue(soak.getRequests() <= (POLLS - missing) * 1.2 + PACKAGES);
+    }
+
+    @Test
+    public void testChangeIsDetected() throws Exception {
+        PrintStream out = Soak.mute();
+        StubRegistry stub = new StubRegistry(DockerAPI.V2, 10).withChanges(500);
+        try {
+            stub.start();
+            DockerMaterialPoller poller = new DockerMaterialPoller();
+            String repository = Soak.Scenario.BASELINE.repository(0);
+            String digest = stub.getDigest(repository, "latest");
+            PackageRevision known = new PackageRevision(digest, new Date(), "docker");
+            assertNull(poller.latestModificationSince(Soak.pkg(repository, "latest"), Soak.repository(stub.getUrl()), known));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (stub.getDigest(repository, "latest").equals(digest) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            String pushed = stub.getDigest(repository, "latest");
+            PackageRevision revision = poller.latestModificationSince(
+                    Soak.pkg(repository, "latest"), Soak.repository(stub.getUrl()), known);
+            assertNotNull(revision);
+            assertEquals(pushed, revision.getRevision());
+        } finally {
+            stub.stop();
+            System.setOut(out);
+        }
+    }
+
+    private static Soak run(final Soak.Scenario scenario) throws Exception {
+        PrintStream out = Soak.mute();
+        List<StubRegistry> registries = scenario.createRegistries();
+        try {
+            for (StubRegistry registry : registries) {
+                registry.start();
+            }
+            scenario.started(registries);
+            Soak soak = new Soak(scenario, registries, POLLS, THREADS, PACKAGES);
+            soak.run(out);
+            return soak;
+        } finally {
+            for (StubRegistry registry : registries) {
+                registry.stop();
+            }
+            System.setOut(out);
+        }
+    }
+
+}
@@ -0,0 +1,712 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process Docker registry for the benchmarks and the soak tests.
+ *
+ * Every repository has the tags <code>tag-0</code> up to
+ * <code>tag-(n-1)</code> and <code>latest</code>. The registry speaks either
+ * V1 (<code>/v1/repositories/{name}/tags</code>) or V2
+ * (<code>/v2/{name}/tags/list</code>, <code>/v2/{name}/manifests/{tag}</code>).
+ * A V2 registry also answers the tags ordered by their last update like the
+ * Docker Hub API (<code>/v2/repositories/{name}/tags</code>): 'latest' was
+ * updated when the registry started, <code>tag-i</code> i + 1 minutes before.
+ * A repository whose name contains 'missing' does not exist, nor do the tags
+ * whose name starts with 'gone'. The tags of a private repository are not
+ * on the Hub API.
+ *
+ * The registry can be made to misbehave: a latency before every answer, a
+ * body dripped in small chunks, a share of 500 errors and a share of 429
+ * answers with a Retry-After, or enforce a rate limit with the RateLimit
+ * headers. It can also require bearer tokens, issued by
+ * its own token server on <code>/token</code>.
+ *
+ * @author Jan De Cooman
+ */
+public class StubRegistry {
+
+    final private static Charset UTF8 = Charset.forName("UTF-8");
+
+    final private DockerAPI api;
+
+    final private int defaultTags;
+
+    final private ConcurrentMap<String, Integer> repositoryTags = new ConcurrentHashMap<>();
+
+    final private Set<String> privateRepositories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    final private ConcurrentMap<Integer, byte[]> tagLists = new ConcurrentHashMap<>();
+
+    final private ConcurrentMap<Integer, byte[]> compressedTagLists = new ConcurrentHashMap<>();
+
+    final private AtomicLong requests = new AtomicLong();
+
+    final private AtomicLong errors = new AtomicLong();
+
+    final private AtomicLong throttled = new AtomicLong();
+
+    final private AtomicLong bytes = new AtomicLong();
+
+    final private AtomicLong tokenRequests = new AtomicLong();
+
+    final private ConcurrentMap<String, Long> tokens = new ConcurrentHashMap<>();
+
+    final private Random random = new Random();
+
+    final private long started = System.currentTimeMillis();
+
+    private volatile long latency;
+
+    private volatile double slowRate;
+
+    private volatile long slowDelay;
+
+    private volatile int dripChunk;
+
+    private volatile long dripDelay;
+
+    private volatile double errorRate;
+
+    private volatile double throttleRate;
+
+    private volatile int retryAfter = 1;
+
+    private volatile int tokenExpiresIn;
+
+    private volatile long changePeriod;
+
+    private volatile String notifications;
+
+    final private Set<String> pushedRepositories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private ScheduledExecutorService pusher;
+
+    private int pageSize;
+
+    private int rateLimit;
+
+    private int rateWindow;
+
+    private long windowStart;
+
+    private int windowRequests;
+
+    private int threads = 16;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    public StubRegistry(final DockerAPI api, final int tags) {
+        this.api = api;
+        this.defaultTags = tags;
+    }
+
+    /**
+     * Build the tag list of a repository.
+     *
+     * @param api
+     * @param tags
+     * @return The JSON of the tag list.
+     */
+    public static String tagList(final DockerAPI api, final int tags) {
+        StringBuilder json = new StringBuilder(tags * 90 + 64);
+        if (api == DockerAPI.V1) {
+            json.append('{');
+            for (int i = 0; i < tags; i++) {
+                json.append("\"tag-").append(i).append("\":\"").append(digest(i)).append("\",");
+            }
+            json.append("\"latest\":\"").append(digest(tags)).append("\"}");
+        } else {
+            json.append("{\"name\":\"stub\",\"tags\":[");
+            for (int i = 0; i < tags; i++) {
+                json.append("\"tag-").append(i).append("\",");
+            }
+            json.append("\"latest\"]}");
+        }
+        return json.toString();
+    }
+
+    private static String digest(final int i) {
+        return String.format("sha256:%064x", i);
+    }
+
+    /**
+     * @param repository
+     * @param tags Number of tags of this repository.
+     * @return this
+     */
+    public StubRegistry withTags(final String repository, final int tags) {
+        this.repositoryTags.put(repository, tags);
+        return this;
+    }
+
+    /**
+     * @param repository
+     * @return this
+     */
+    public StubRegistry withPrivate(final String repository) {
+        this.privateRepositories.add(repository);
+        return this;
+    }
+
+    /**
+     * @param latency Milliseconds to wait before every answer.
+     * @return this
+     */
+    public StubRegistry withLatency(final long latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * @param slowRate Share of the requests answered late.
+     * @param delay Milliseconds those requests wait on top of the latency.
+     * @return this
+     */
+    public StubRegistry withSlowRate(final double slowRate, final long delay) {
+        this.slowRate = slowRate;
+        this.slowDelay = delay;
+        return this;
+    }
+
+    /**
+     * Send the bodies in small chunks.
+     *
+     * @param chunk Bytes per chunk.
+     * @param delay Milliseconds between the chunks.
+     * @return this
+     */
+    public StubRegistry withSlowDrip(final int chunk, final long delay) {
+        this.dripChunk = chunk;
+        this.dripDelay = delay;
+        return this;
+    }
+
+    /**
+     * Push a new 'latest' to every tenth repository, the ones whose name ends
+     * with 0, at a fixed period. The other tags never change.
+     *
+     * @param period Milliseconds between two pushes.
+     * @return this
+     */
+    public StubRegistry withChanges(final long period) {
+        this.changePeriod = period;
+        return this;
+    }
+
+    /**
+     * Post a Docker Distribution notification for every push of
+     * {@link #withChanges}, to the repositories which have been polled.
+     *
+     * @param url The listener of the notifications.
+     * @return this
+     */
+    public StubRegistry withNotifications(final String url) {
+        this.notifications = url;
+        return this;
+    }
+
+    /**
+     * @param errorRate Share of the requests answered with 500.
+     * @return this
+     */
+    public StubRegistry withErrorRate(final double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param throttleRate Share of the requests answered with 429.
+     * @param retryAfter Seconds sent in the Retry-After header.
+     * @return this
+     */
+    public StubRegistry withThrottling(final double throttleRate, final int retryAfter) {
+        this.throttleRate = throttleRate;
+        this.retryAfter = retryAfter;
+        return this;
+    }
+
+    /**
+     * Send the V2 tag lists in pages, with a Link header to the next page.
+     * The client can ask for smaller pages with the 'n' parameter.
+     *
+     * @param pageSize The most tags per page.
+     * @return this
+     */
+    public StubRegistry withPagination(final int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Allow a number of requests per fixed window. Every response carries the
+     * RateLimit headers, the requests over the limit are answered with 429.
+     *
+     * @param limit Requests per window.
+     * @param window Seconds of the window.
+     * @return this
+     */
+    public StubRegistry withRateLimit(final int limit, final int window) {
+        this.rateLimit = limit;
+        this.rateWindow = window;
+        return this;
+    }
+
+    /**
+     * Require a bearer token on the V2 repositories.
+     *
+     * @param expiresIn Seconds the issued tokens are valid.
+     * @return this
+     */
+    public StubRegistry withTokenAuth(final int expiresIn) {
+        this.tokenExpiresIn = expiresIn;
+        return this;
+    }
+
+    /**
+     * @param threads Number of threads serving the requests.
+     * @return this
+     */
+    public StubRegistry withThreads(final int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public void start() throws IOException {
+        // headers and body are written apart, do not let Nagle delay the body
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        this.executor = Executors.newFixedThreadPool(this.threads);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                try {
+                    serve(exchange);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        this.server.start();
+
+        if (this.notifications != null && this.changePeriod > 0) {
+            this.pusher = Executors.newSingleThreadScheduledExecutor();
+            long next = this.changePeriod - (System.currentTimeMillis() - this.started) % this.changePeriod;
+            this.pusher.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    notifyPushes();
+                }
+            }, next + 10, this.changePeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        if (this.server != null) {
+            this.server.stop(0);
+            this.executor.shutdownNow();
+        }
+        if (this.pusher != null) {
+            this.pusher.shutdownNow();
+        }
+    }
+
+    /**
+     * Post one envelope with a push event per changed repository.
+     */
+    private void notifyPushes() {
+        if (this.pushedRepositories.isEmpty()) {
+            return;
+        }
+        StringBuilder json = new StringBuilder("{\"events\":[");
+        for (String repository : this.pushedRepositories) {
+            json.append(json.length() > 11 ? "," : "").append("{\"action\":\"push\",\"target\":{")
+                    .append("\"mediaType\":\"application/vnd.docker.distribution.manifest.v2+json\",")
+                    .append("\"repository\":\"").append(repository).append("\",\"tag\":\"latest\"}}");
+        }
+        json.append("]}");
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(this.notifications).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/vnd.docker.distribution.events.v1+json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(json.toString().getBytes(UTF8));
+            }
+            connection.getResponseCode();
+            connection.disconnect();
+        } catch (IOException e) {
+            // the listener is not up yet, the next push is notified
+        }
+    }
+
+    /**
+     * @param repository
+     * @param tag
+     * @return The digest the registry answers for the tag right now.
+     */
+    public String getDigest(final String repository, final String tag) {
+        if (this.api == DockerAPI.V1) {
+            Integer tags = this.repositoryTags.get(repository);
+            return digest("latest".equals(tag) ? (tags == null ? this.defaultTags : tags)
+                    : Integer.parseInt(tag.substring("tag-".length())));
+        }
+        int version = 0;
+        if (this.isChanging(repository, tag)) {
+            version = (int) ((System.currentTimeMillis() - this.started) / this.changePeriod);
+        }
+        return digest(tag.hashCode() + version);
+    }
+
+    /**
+     * With {@link #withChanges}, 'latest' of the repositories whose name ends
+     * with 0 changes.
+     */
+    private boolean isChanging(final String repository, final String tag) {
+        return this.changePeriod > 0 && tag.equals("latest") && repository.endsWith("0");
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    public long getThrottled() {
+        return this.throttled.get();
+    }
+
+    public long getTokenRequests() {
+        return this.tokenRequests.get();
+    }
+
+    /**
+     * @return The number of body bytes sent.
+     */
+    public long getBytes() {
+        return this.bytes.get();
+    }
+
+    /**
+     * Count the request in the current window and add the RateLimit headers.
+     */
+    private synchronized boolean withinRateLimit(final HttpExchange exchange) {
+        long now = System.currentTimeMillis();
+        long window = this.rateWindow * 1000L;
+        if (now - this.windowStart >= window) {
+            this.windowStart = now - (now % window);
+            this.windowRequests = 0;
+        }
+        this.windowRequests++;
+        long reset = Math.max(1, (this.windowStart + window - now + 999) / 1000);
+        exchange.getResponseHeaders().add("RateLimit-Limit", this.rateLimit + ";w=" + this.rateWindow);
+        exchange.getResponseHeaders().add("RateLimit-Remaining",
+                Math.max(0, this.rateLimit - this.windowRequests) + ";w=" + this.rateWindow);
+        exchange.getResponseHeaders().add("RateLimit-Reset", String.valueOf(reset));
+        if (this.windowRequests > this.rateLimit) {
+            exchange.getResponseHeaders().add("Retry-After", String.valueOf(reset));
+            return false;
+        }
+        return true;
+    }
+
+    private void serve(final HttpExchange exchange) throws IOException, InterruptedException {
+        if (this.latency > 0) {
+            Thread.sleep(this.latency);
+        }
+        if (this.slowRate > 0 && this.random.nextDouble() < this.slowRate) {
+            Thread.sleep(this.slowDelay);
+        }
+
+        if (this.rateLimit > 0 && !this.withinRateLimit(exchange)) {
+            this.throttled.incrementAndGet();
+            this.send(exchange, 429, null);
+            return;
+        }
+
+        double dice = this.random.nextDouble();
+        if (dice < this.throttleRate) {
+            this.throttled.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", String.valueOf(this.retryAfter));
+            this.send(exchange, 429, null);
+            return;
+        }
+        if (dice < this.throttleRate + this.errorRate) {
+            this.errors.incrementAndGet();
+            this.send(exchange, 500, null);
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        boolean v2 = this.api == DockerAPI.V2;
+
+        if (this.tokenExpiresIn > 0) {
+            if (path.equals("/token")) {
+                this.tokenRequests.incrementAndGet();
+                String token = "token-" + this.tokenRequests.get();
+                this.tokens.put(token, System.currentTimeMillis() + this.tokenExpiresIn * 1000L);
+                this.send(exchange, 200, ("{\"token\":\"" + token + "\",\"expires_in\":"
+                        + this.tokenExpiresIn + "}").getBytes(UTF8));
+                return;
+            }
+            if (v2 && path.startsWith("/v2/") && !path.equals("/v2/")
+                    && !path.startsWith("/v2/repositories/") && !this.isAuthorized(exchange)) {
+                String repository = path.substring("/v2/".length(), path.lastIndexOf(
+                        path.contains("/manifests/") ? "/manifests/" : "/tags/"));
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Bearer realm=\"" + this.getUrl()
+                        + "/token\",service=\"stub\",scope=\"repository:" + repository + ":pull\"");
+                this.send(exchange, 401, null);
+                return;
+            }
+        }
+
+        if (path.contains("missing") || path.contains("/manifests/gone")) {
+            this.send(exchange, 404, "{\"errors\":[{\"code\":\"NAME_UNKNOWN\"}]}".getBytes(UTF8));
+        } else if (path.equals("/v2/")) {
+            if (v2) {
+                exchange.getResponseHeaders().add("Docker-Distribution-API-Version", "registry/2.0");
+                this.send(exchange, 200, "{}".getBytes(UTF8));
+            } else {
+                this.send(exchange, 404, null);
+            }
+        } else if (!v2 && path.startsWith("/v1/repositories/") && path.endsWith("/tags")) {
+            String repository = path.substring("/v1/repositories/".length(), path.length() - "/tags".length());
+            this.sendTagList(exchange, repository);
+        } else if (v2 && path.startsWith("/v2/repositories/") && path.endsWith("/tags")) {
+            String repository = path.substring("/v2/repositories/".length(), path.length() - "/tags".length());
+            if (this.privateRepositories.contains(repository)) {
+                this.send(exchange, 404, null);
+            } else {
+                this.sendHubPage(exchange, repository);
+            }
+        } else if (v2 && path.startsWith("/v2/") && path.endsWith("/tags/list")) {
+            String repository = path.substring("/v2/".length(), path.length() - "/tags/list".length());
+            this.sendTagList(exchange, repository);
+        } else if (v2 && path.startsWith("/v2/") && path.contains("/manifests/")) {
+            String repository = path.substring("/v2/".length(), path.indexOf("/manifests/"));
+            String tag = path.substring(path.lastIndexOf('/') + 1);
+            if (this.isChanging(repository, tag)) {
+                this.pushedRepositories.add(repository);
+            }
+            exchange.getResponseHeaders().add("Docker-Content-Digest", this.getDigest(repository, tag));
+            exchange.getResponseHeaders().add("Content-Type",
+                    "application/vnd.docker.distribution.manifest.v2+json");
+            this.send(exchange, 200, "{\"schemaVersion\":2}".getBytes(UTF8));
+        } else {
+            this.send(exchange, 404, null);
+        }
+    }
+
+    private boolean isAuthorized(final HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return false;
+        }
+        Long expires = this.tokens.get(authorization.substring("Bearer ".length()));
+        return expires != null && expires > System.currentTimeMillis();
+    }
+
+    /**
+     * Send the tag list, gzipped when the client accepts it. The lists are
+     * built and compressed once per size.
+     */
+    private void sendTagList(final HttpExchange exchange, final String repository)
+            throws IOException, InterruptedException {
+        Integer tags = this.repositoryTags.get(repository);
+        int count = tags == null ? this.defaultTags : tags;
+        String query = exchange.getRequestURI().getRawQuery();
+        if (this.api == DockerAPI.V2 && (this.pageSize > 0 || (query != null && query.contains("n=")))) {
+            this.sendTagPage(exchange, repository, count, query);
+            return;
+        }
+        byte[] body = this.tagLists.get(count);
+        if (body == null) {
+            body = tagList(this.api, count).getBytes(UTF8);
+            this.tagLists.putIfAbsent(count, body);
+        }
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept != null && accept.contains("gzip")) {
+            byte[] compressed = this.compressedTagLists.get(count);
+            if (compressed == null) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                    gzip.write(body);
+                }
+                compressed = buffer.toByteArray();
+                this.compressedTagLists.putIfAbsent(count, compressed);
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            body = compressed;
+        }
+        this.send(exchange, 200, body);
+    }
+
+    /**
+     * Send the page of the tag list after the 'last' tag. The tags are in
+     * the order of the full list, 'latest' comes last.
+     */
+    private void sendTagPage(final HttpExchange exchange, final String repository, final int count,
+            final String query) throws IOException, InterruptedException {
+        int size = this.pageSize > 0 ? this.pageSize : Integer.MAX_VALUE;
+        int from = 0;
+        for (String parameter : query == null ? new String[0] : query.split("&")) {
+            if (parameter.startsWith("n=")) {
+                size = Math.min(size, Integer.parseInt(parameter.substring(2)));
+            } else if (parameter.startsWith("last=")) {
+                String last = URLDecoder.decode(parameter.substring(5), "UTF-8");
+                from = "latest".equals(last) ? count + 1 : Integer.parseInt(last.substring("tag-".length())) + 1;
+            }
+        }
+        int to = (int) Math.min((long) from + size, count + 1);
+        StringBuilder json = new StringBuilder((to - from) * 12 + 64);
+        json.append("{\"name\":\"").append(repository).append("\",\"tags\":[");
+        for (int i = from; i < to; i++) {
+            json.append(i > from ? "," : "").append('"').append(i < count ? "tag-" + i : "latest").append('"');
+        }
+        json.append("]}");
+        if (to <= count) {
+            exchange.getResponseHeaders().add("Link", "</v2/" + repository + "/tags/list?n=" + size
+                    + "&last=tag-" + (to - 1) + ">; rel=\"next\"");
+        }
+        byte[] body = json.toString().getBytes(UTF8);
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept != null && accept.contains("gzip")) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                gzip.write(body);
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            body = buffer.toByteArray();
+        }
+        this.send(exchange, 200, body);
+    }
+
+    /**
+     * Send a page of the tags ordered by their last update, newest first,
+     * with the digests of the manifests.
+     */
+    private void sendHubPage(final HttpExchange exchange, final String repository)
+            throws IOException, InterruptedException {
+        Integer tags = this.repositoryTags.get(repository);
+        int count = tags == null ? this.defaultTags : tags;
+        int size = 10;
+        int page = 1;
+        String query = exchange.getRequestURI().getRawQuery();
+        for (String parameter : query == null ? new String[0] : query.split("&")) {
+            if (parameter.startsWith("page_size=")) {
+                size = Integer.parseInt(parameter.substring("page_size=".length()));
+            } else if (parameter.startsWith("page=")) {
+                page = Integer.parseInt(parameter.substring("page=".length()));
+            }
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'000Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // 'latest' first, then tag-0, tag-1, ...
+        int from = (page - 1) * size;
+        int to = (int) Math.min((long) from + size, count + 1);
+        StringBuilder json = new StringBuilder((to - from) * 160 + 128);
+        json.append("{\"count\":").append(count + 1).append(",\"next\":");
+        if (to <= count) {
+            json.append('"').append(this.getUrl()).append("/v2/repositories/").append(repository)
+                    .append("/tags?page=").append(page + 1).append("&page_size=").append(size)
+                    .append("&ordering=last_updated\"");
+        } else {
+            json.append("null");
+        }
+        json.append(",\"results\":[");
+        for (int i = from; i < to; i++) {
+            String tag = i == 0 ? "latest" : "tag-" + (i - 1);
+            json.append(i > from ? "," : "").append("{\"name\":\"").append(tag)
+                    .append("\",\"digest\":\"").append(digest(tag.hashCode()))
+                    .append("\",\"last_updated\":\"").append(format.format(new Date(this.started - i * 60000L)))
+                    .append("\",\"images\":[{\"architecture\":\"amd64\",\"os\":\"linux\"}]}");
+        }
+        json.append("]}");
+        this.send(exchange, 200, json.toString().getBytes(UTF8));
+    }
+
+    private void send(final HttpExchange exchange, final int status, final byte[] body)
+            throws IOException, InterruptedException {
+        if (!exchange.getResponseHeaders().containsKey("Content-Type")) {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+        }
+        if (body == null || "HEAD".equals(exchange.getRequestMethod())) {
+            // the JDK server drops the connection after an empty response, tell the client
+            exchange.getResponseHeaders().add("Connection", "close");
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        if (this.dripChunk <= 0) {
+            out.write(body);
+        } else {
+            for (int offset = 0; offset < body.length; offset += this.dripChunk) {
+                out.write(body, offset, Math.min(this.dripChunk, body.length - offset));
+                out.flush();
+                Thread.sleep(this.dripDelay);
+            }
+        }
+        out.close();
+        this.bytes.addAndGet(body.length);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.HashMap;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Jan De Cooman
+ */
+public class TagDeltaTest {
+
+    @Test
+    public void testAddedRemovedAndRepointed() {
+        TagSnapshot before = TagSnapshot.EMPTY.withList(list("latest", "sha256:1", "1.0", "sha256:2", "0.9", "sha256:3"));
+        TagSnapshot after = before.withList(list("latest", "sha256:4", "1.0", "sha256:2", "1.1", "sha256:4"));
+        TagDelta delta = TagDelta.between(before, after);
+
+        assertEquals("sha256:4", delta.getAdded().get("1.1"));
+        assertTrue(delta.getRemoved().contains("0.9"));
+        assertEquals("sha256:4", delta.getRepointed().get("latest"));
+        assertTrue(delta.affects("latest"));
+        assertTrue(delta.affects("0.9"));
+        assertFalse(delta.affects("1.0"));
+    }
+
+    @Test
+    public void testSameListIsNoChange() {
+        TagSnapshot before = TagSnapshot.EMPTY.withList(list("latest", "sha256:1"));
+        TagSnapshot after = before.withList(list("latest", "sha256:1"));
+        assertSame(TagDelta.EMPTY, TagDelta.between(before, after));
+        assertTrue(TagDelta.between(before, after).isEmpty());
+    }
+
+    @Test
+    public void testFirstDigestIsNoChange() {
+        // V2 lists the names, the digest comes later with the manifest
+        TagSnapshot before = TagSnapshot.EMPTY.withList(list("latest", null));
+        TagSnapshot after = before.withTag("latest", "sha256:1");
+        assertFalse(TagDelta.between(before, after).affects("latest"));
+
+        TagSnapshot pushed = after.withTag("latest", "sha256:2");
+        assertTrue(TagDelta.between(after, pushed).affects("latest"));
+    }
+
+    @Test
+    public void testNamesOnlyListKeepsTheDigests() {
+        TagSnapshot before = TagSnapshot.EMPTY.withList(list("latest", null)).withTag("latest", "sha256:1");
+        TagSnapshot after = before.withList(list("latest", null, "1.0", null));
+        TagDelta delta = TagDelta.between(before, after);
+        assertEquals("sha256:1", after.getDigest("latest"));
+        assertFalse(delta.affects("latest"));
+        assertTrue(delta.affects("1.0"));
+    }
+
+    private static TagList list(final String... tags) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < tags.length; i += 2) {
+            map.put(tags[i], tags[i + 1]);
+        }
+        return new TagList(map, null, null, System.currentTimeMillis());
+    }
+}
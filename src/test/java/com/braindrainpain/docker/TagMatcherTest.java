@@ -0,0 +1,168 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Jan De Cooman
+ */
+public class TagMatcherTest {
+
+    @Test
+    public void testIsPattern() {
+        assertFalse(TagMatcher.isPattern("latest"));
+        assertFalse(TagMatcher.isPattern("v1.2.3"));
+        assertFalse(TagMatcher.isPattern("1.x"));
+        assertFalse(TagMatcher.isPattern("2.0.0-rc.1"));
+        assertTrue(TagMatcher.isPattern("1.4.*"));
+        assertTrue(TagMatcher.isPattern("1.?"));
+        assertTrue(TagMatcher.isPattern("/v\\d+/"));
+        assertTrue(TagMatcher.isPattern(">=2.0"));
+        assertTrue(TagMatcher.isPattern("~1.4"));
+        assertTrue(TagMatcher.isPattern("1 || 2"));
+    }
+
+    @Test
+    public void testGlob() {
+        TagMatcher matcher = TagMatcher.compile("1.4.*");
+        assertFalse(matcher.isVersionsOnly());
+        assertTrue(matches(matcher, "1.4.2"));
+        assertTrue(matches(matcher, "1.4.2-rc.1"));
+        assertFalse(matches(matcher, "1.40"));
+        assertFalse(matches(matcher, "1.4"));
+        assertTrue(matches(TagMatcher.compile("1.?"), "1.5"));
+        assertFalse(matches(TagMatcher.compile("1.?"), "1.50"));
+    }
+
+    @Test
+    public void testRegex() {
+        TagMatcher matcher = TagMatcher.compile("/v\\d+/");
+        assertFalse(matcher.isVersionsOnly());
+        assertTrue(matches(matcher, "v12"));
+        assertFalse(matches(matcher, "v12.1"));
+        assertFalse(matches(matcher, "xv12"));
+    }
+
+    @Test
+    public void testRegexIsNotAGlob() {
+        // '*' and '.' keep their regex meaning between slashes
+        TagMatcher matcher = TagMatcher.compile("/1.*/");
+        assertTrue(matches(matcher, "1-4"));
+        assertFalse(matches(TagMatcher.compile("1.*"), "1-4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRegex() {
+        TagMatcher.compile("/[/");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidGlob() {
+        TagMatcher.compile("1.4+*");
+    }
+
+    @Test
+    public void testRange() {
+        TagMatcher matcher = TagMatcher.compile(">=2.0 <3");
+        assertTrue(matcher.isVersionsOnly());
+        assertTrue(matches(matcher, "2.0"));
+        assertTrue(matches(matcher, "v2.0.0"));
+        assertTrue(matches(matcher, "2.99.1"));
+        assertFalse(matches(matcher, "1.9.9"));
+        assertFalse(matches(matcher, "3"));
+        assertFalse(matches(matcher, "3.1"));
+        assertFalse(matches(matcher, "latest"));
+    }
+
+    @Test
+    public void testRangeSkipsPreReleases() {
+        TagMatcher matcher = TagMatcher.compile(">=2.0 <3");
+        assertFalse(matches(matcher, "2.1.0-rc.1"));
+        assertFalse(matches(matcher, "3.0.0-rc.1"));
+    }
+
+    @Test
+    public void testPartialBounds() {
+        assertTrue(matches(TagMatcher.compile("<=1.4"), "1.4.2"));
+        assertFalse(matches(TagMatcher.compile("<=1.4"), "1.5"));
+        assertFalse(matches(TagMatcher.compile(">1.4"), "1.4.5"));
+        assertTrue(matches(TagMatcher.compile(">1.4"), "1.5"));
+        assertTrue(matches(TagMatcher.compile("<3"), "2.99"));
+        assertFalse(matches(TagMatcher.compile("<3"), "3.1"));
+        assertTrue(matches(TagMatcher.compile("=1.4"), "1.4.7"));
+        assertFalse(matches(TagMatcher.compile("=1.4"), "1.5"));
+    }
+
+    @Test
+    public void testTilde() {
+        TagMatcher minor = TagMatcher.compile("~1.4");
+        assertTrue(matches(minor, "1.4.0"));
+        assertTrue(matches(minor, "1.4.9"));
+        assertFalse(matches(minor, "1.5.0"));
+        assertFalse(matches(minor, "1.3.9"));
+
+        TagMatcher patch = TagMatcher.compile("~1.4.2");
+        assertFalse(matches(patch, "1.4.1"));
+        assertTrue(matches(patch, "1.4.3"));
+        assertFalse(matches(patch, "1.5.0"));
+    }
+
+    @Test
+    public void testCaret() {
+        TagMatcher major = TagMatcher.compile("^2");
+        assertTrue(matches(major, "2.5.1"));
+        assertFalse(matches(major, "3.0"));
+        assertFalse(matches(major, "1.9"));
+
+        TagMatcher zero = TagMatcher.compile("^0.3.1");
+        assertTrue(matches(zero, "0.3.5"));
+        assertFalse(matches(zero, "0.3.0"));
+        assertFalse(matches(zero, "0.4.0"));
+    }
+
+    @Test
+    public void testAlternatives() {
+        TagMatcher matcher = TagMatcher.compile("=1.x || >=3");
+        assertTrue(matches(matcher, "1.2"));
+        assertFalse(matches(matcher, "2.0"));
+        assertTrue(matches(matcher, "3.1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRangeOfNoVersion() {
+        TagMatcher.compile(">=abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRangeOfPreRelease() {
+        TagMatcher.compile(">=1.0-rc.1");
+    }
+
+    private static boolean matches(final TagMatcher matcher, final String tag) {
+        return matcher.matches(TagVersion.parse(tag));
+    }
+}
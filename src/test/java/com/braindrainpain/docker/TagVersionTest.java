@@ -0,0 +1,93 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Jan De Cooman
+ */
+public class TagVersionTest {
+
+    @Test
+    public void testParse() {
+        TagVersion version = TagVersion.parse("v1.4.2");
+        assertTrue(version.isVersion());
+        assertFalse(version.isPreRelease());
+        assertEquals(3, version.getPrecision());
+        assertEquals(4, version.getNumber(1));
+        assertEquals(0, version.getNumber(5));
+
+        assertTrue(TagVersion.parse("2.0.0-rc.1").isPreRelease());
+        assertFalse(TagVersion.parse("latest").isVersion());
+        assertFalse(TagVersion.parse("1.4-").isVersion());
+    }
+
+    @Test
+    public void testNumbersAreComparedAsNumbers() {
+        assertTrue(TagVersion.parse("1.10").compareTo(TagVersion.parse("1.9")) > 0);
+        assertTrue(TagVersion.parse("2").compareTo(TagVersion.parse("1.99.99")) > 0);
+    }
+
+    @Test
+    public void testMissingNumbersAreZero() {
+        assertEquals(0, TagVersion.parse("1.4").compareVersion(TagVersion.parse("v1.4.0")));
+        // the same version tagged in two ways still has an order
+        assertTrue(TagVersion.parse("1.4").compareTo(TagVersion.parse("v1.4.0")) != 0);
+    }
+
+    @Test
+    public void testPreReleaseOrder() {
+        List<String> expected = Arrays.asList("1.0.0-alpha", "1.0.0-alpha.1", "1.0.0-alpha.beta",
+                "1.0.0-beta", "1.0.0-beta.2", "1.0.0-beta.11", "1.0.0-rc.1", "1.0.0");
+        assertEquals(expected, sorted(expected));
+    }
+
+    @Test
+    public void testVersionsAreHigherThanNames() {
+        List<String> expected = Arrays.asList("latest", "stable", "0.1", "1.0-rc.1", "1.0", "v1.2");
+        assertEquals(expected, sorted(expected));
+    }
+
+    private static List<String> sorted(final List<String> names) {
+        List<TagVersion> versions = new ArrayList<>();
+        for (String name : names) {
+            versions.add(TagVersion.parse(name));
+        }
+        Collections.shuffle(versions);
+        Collections.sort(versions);
+        List<String> result = new ArrayList<>();
+        for (TagVersion version : versions) {
+            result.add(version.getName());
+        }
+        return result;
+    }
+}
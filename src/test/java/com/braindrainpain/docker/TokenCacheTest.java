@@ -0,0 +1,59 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2014 Jan De Cooman
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.braindrainpain.docker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * @author Jan De Cooman
+ */
+public class TokenCacheTest {
+
+    final private static Challenge CHALLENGE = new Challenge("Bearer",
+            "https://auth.docker.io/token", "registry.docker.io", "repository:library/nginx:pull");
+
+    @Test
+    public void testWrongPasswordGetsItsOwnToken() {
+        assertNotEquals(TokenCache.key(CHALLENGE, new Credentials("alice", "secret")),
+                TokenCache.key(CHALLENGE, new Credentials("alice", "wrong")));
+        assertNotEquals(TokenCache.key(CHALLENGE, new Credentials("alice", "secret")),
+                TokenCache.key(CHALLENGE, new Credentials(null, null)));
+    }
+
+    @Test
+    public void testSameCredentialsShareTheToken() {
+        assertEquals(TokenCache.key(CHALLENGE, new Credentials("alice", "secret")),
+                TokenCache.key(CHALLENGE, new Credentials("alice", "secret")));
+    }
+
+    @Test
+    public void testKeyHasNoSecret() {
+        String key = TokenCache.key(CHALLENGE, new Credentials("alice", "secret"));
+        assertTrue(key.indexOf("secret") < 0);
+        assertTrue(key.indexOf("alice") < 0);
+    }
+}